@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+// Common part of the pitch detectors: 16 bit PCM and float input is
+// converted into a preallocated buffer of doubles, so that an engine only
+// needs to implement computePitch(double[], int). Also keeps the
+// continuity filter the engines pass their raw pitches through.
+abstract class AbstractPitchDetector implements PitchDetector {
+    private static final double kShortScale = 1 / 32768.0;
+
+    protected AbstractPitchDetector(int sampleRate, int samplecount) {
+        this.sampleRate = sampleRate;
+        this.samplecount = samplecount;
+        converted = new double[samplecount];
+        tracking = new PitchContinuityFilter();
+    }
+
+    @Override
+    public int getSampleRate() { return sampleRate; }
+    @Override
+    public int getSampleCount() { return samplecount; }
+    @Override
+    public int getConfidence() { return tracking.getConfidence(); }
+
+    @Override
+    public double computePitch(short samples[]) {
+        for (int i = 0; i < samplecount; ++i) {
+            converted[i] = samples[i] * kShortScale;
+        }
+        return computePitch(converted, 0);
+    }
+
+    @Override
+    public double computePitch(ShortBuffer samples) {
+        for (int i = 0; i < samplecount; ++i) {
+            converted[i] = samples.get(i) * kShortScale;
+        }
+        return computePitch(converted, 0);
+    }
+
+    @Override
+    public double computePitch(FloatBuffer samples) {
+        for (int i = 0; i < samplecount; ++i) {
+            converted[i] = samples.get(i);
+        }
+        return computePitch(converted, 0);
+    }
+
+    @Override
+    public double skipPitch() {
+        return tracking.track(0.0);
+    }
+
+    protected final int sampleRate;
+    protected final int samplecount;
+    protected final PitchContinuityFilter tracking;
+    private final double converted[];
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import android.view.Choreographer;
+
+// Frame callbacks for the PitchFrameReceiver. In a class of its own, so
+// that devices before Android 4.1, which don't have a Choreographer, never
+// load it.
+final class ChoreographerFrames implements Choreographer.FrameCallback {
+    ChoreographerFrames(PitchFrameReceiver receiver) {
+        this.receiver = receiver;
+        choreographer = Choreographer.getInstance();
+    }
+
+    void post() { choreographer.postFrameCallback(this); }
+    void remove() { choreographer.removeFrameCallback(this); }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        receiver.onFrame();
+    }
+
+    private final PitchFrameReceiver receiver;
+    private final Choreographer choreographer;
+}
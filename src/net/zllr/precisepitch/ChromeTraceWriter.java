@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+// Writes PitchTrace sections in the Chrome trace event format: a JSON file
+// to load into chrome://tracing or ui.perfetto.dev. Needs nothing from
+// Android, so it also traces the headless pipeline in a plain JVM:
+//
+//   final ChromeTraceWriter writer
+//       = new ChromeTraceWriter(new FileWriter("pitch-trace.json"));
+//   PitchTrace.setTracer(writer);
+//   pipeline.process(pcm, 0, pcm.length, hopSize, sampleRate);
+//   PitchTrace.setTracer(null);
+//   writer.close();
+//
+// Each thread gets its own track, named after the thread. Writing is
+// synchronized; meant for finding out where time goes, not for tracing
+// for hours.
+public final class ChromeTraceWriter implements PitchTrace.Tracer {
+    private static final int kMaxThreads = 64;
+
+    public ChromeTraceWriter(Writer out) {
+        this.out = new PrintWriter(out);
+        this.out.print("{\"traceEvents\":[");
+    }
+
+    @Override
+    public synchronized void begin(String name) {
+        final long now = System.nanoTime();
+        final Thread thread = Thread.currentThread();
+        nameThread(thread);
+        event("B", thread.getId(), now);
+        out.print(",\"name\":\"");
+        printEscaped(name);
+        out.print("\"}");
+    }
+
+    @Override
+    public synchronized void end() {
+        event("E", Thread.currentThread().getId(), System.nanoTime());
+        out.print('}');
+    }
+
+    // Finish the file and close the writer. Sections still open at this
+    // point are shown as ending with the trace.
+    public synchronized void close() {
+        out.print("]}");
+        out.close();
+    }
+
+    // true if writing failed at some point, see PrintWriter.checkError().
+    public synchronized boolean checkError() { return out.checkError(); }
+
+    // Opens an event, up to the fields common to all; the caller adds
+    // its own and closes it.
+    private void event(String phase, long thread, long nanos) {
+        if (eventCount++ > 0) out.print(',');
+        out.print("\n{\"ph\":\"");
+        out.print(phase);
+        out.print("\",\"pid\":1,\"tid\":");
+        out.print(thread);
+        out.print(",\"ts\":");
+        out.print((nanos - startNanos) / 1000.0);  // microseconds.
+    }
+
+    // Metadata event naming the thread's track, the first time we see it.
+    private void nameThread(Thread thread) {
+        final long id = thread.getId();
+        for (int i = 0; i < threadCount; ++i) {
+            if (namedThreads[i] == id) return;
+        }
+        if (threadCount == kMaxThreads) return;  // unnamed it is.
+        namedThreads[threadCount++] = id;
+        event("M", id, startNanos);
+        out.print(",\"name\":\"thread_name\",\"args\":{\"name\":\"");
+        printEscaped(thread.getName());
+        out.print("\"}}");
+    }
+
+    private void printEscaped(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.print('\\');
+                out.print(c);
+            } else if (c < ' ') {
+                out.print(' ');
+            } else {
+                out.print(c);
+            }
+        }
+    }
+
+    private final PrintWriter out;
+    private final long startNanos = System.nanoTime();
+    private final long namedThreads[] = new long[kMaxThreads];
+    private int threadCount;
+    private long eventCount;
+}
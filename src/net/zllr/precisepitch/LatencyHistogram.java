@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Histogram of durations in fixed memory, in the style of HdrHistogram:
+// buckets are powers of two, each split into kSubBuckets linear steps, so
+// any value is recorded with a relative error of at most 1/kSubBuckets
+// (about 3%), from 1 microsecond up to about half an hour.
+// Recording is lock-free and doesn't allocate; it can be done from the
+// audio thread while another thread reads percentiles.
+public final class LatencyHistogram {
+    private static final int kSubBucketBits = 5;
+    private static final int kSubBuckets = 1 << kSubBucketBits;
+    private static final int kMaxExponent = 30;  // values up to 2^31 - 1
+    private static final int kBucketCount
+        = (kMaxExponent - kSubBucketBits + 2) * kSubBuckets;
+
+    // Record a value, typically in microseconds. Negative values count as 0,
+    // values beyond the range as the largest one.
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(indexOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get())
+               && !max.compareAndSet(currentMax, value)) {
+            // retry.
+        }
+    }
+
+    public long getCount() { return total.get(); }
+    public long getMax() { return max.get(); }
+
+    public double getMean() {
+        final long n = total.get();
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+
+    // The value below which the given percentage (0..100) of the recorded
+    // values are; as the upper end of the bucket it is in. 0 if empty.
+    public long getValueAtPercentile(double percentile) {
+        final long n = total.get();
+        if (n == 0) return 0;
+        final long wanted = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < kBucketCount; ++i) {
+            seen += counts.get(i);
+            if (seen >= wanted) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    // Start over. Not atomic with concurrent recording; values recorded
+    // meanwhile might be partially lost.
+    public void reset() {
+        for (int i = 0; i < kBucketCount; ++i) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    // Values below kSubBuckets have a bucket each. Above, the bucket is
+    // given by the exponent and the kSubBucketBits following the highest
+    // bit.
+    private static int indexOf(long value) {
+        if (value < kSubBuckets) return (int) value;
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > kMaxExponent) return kBucketCount - 1;
+        final int shift = exponent - kSubBucketBits;
+        return (shift + 1) * kSubBuckets
+            + (int) (value >>> shift) - kSubBuckets;
+    }
+
+    private static long upperBound(int index) {
+        if (index < kSubBuckets) return index;
+        final int shift = index / kSubBuckets - 1;
+        final long lower = (long) (kSubBuckets + index % kSubBuckets) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(kBucketCount);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+}
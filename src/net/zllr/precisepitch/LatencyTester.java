@@ -0,0 +1,279 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.view.View;
+import net.zllr.precisepitch.model.MeasuredPitch;
+import net.zllr.precisepitch.view.DrawListener;
+
+// Self-test measuring how long it takes from a sound to the screen, on
+// this device with the given capture and engine configuration.
+// Plays a short tone burst every second on the speaker and follows it
+// through the microphone and the pitch pipeline until the view showing
+// the reading has drawn it. Each burst is timed in segments:
+//   playback -> input:   AudioTrack played the burst until its onset was
+//                        captured (speaker, air, microphone, buffers).
+//   input -> reading:    onset until the pipeline published the note.
+//   reading -> drawn:    until the view drew it.
+//   total:               playback until drawn.
+// Each one is a LatencyHistogram, so we get the distribution over many
+// bursts, not a single number.
+// Not included: from onDraw() until the display lights up (typically one
+// or two display frames), and from where AudioTrack reports the playback
+// position to the speaker. The playback time is precise to a few
+// milliseconds, depending on how often the device updates the position.
+//
+// Usage: create with the source to test before it starts sampling; this
+// replaces its pipeline. Set the tester as DrawListener of the view that
+// shows the readings, and pass every reading the UI shows to onShown(),
+// invalidating the view if it returns true. Then start() and stop().
+final class LatencyTester implements PitchSink, DrawListener {
+    private static final double kToneFrequency = 880;  // A5
+    private static final int kToneNote = 0;           // A, as in note % 12
+    private static final double kToneLevel = 0.5;
+    private static final int kBurstMillis = 250;
+    private static final int kRampMillis = 2;
+    private static final int kPeriodMillis = 1000;
+    private static final int kWriteChunk = 256;       // samples per write.
+
+    // An onset is a sample this much louder than the noise before, after
+    // at least kQuietMillis without.
+    private static final double kMinOnsetLevel = 0.02;
+    private static final double kOnsetOverNoise = 4;
+    private static final int kQuietMillis = 300;
+
+    // What a measurement is waiting for.
+    private static final int kWaitOnset = 0;
+    private static final int kWaitReading = 1;
+    private static final int kWaitShown = 2;
+    private static final int kWaitDrawn = 3;
+
+    // Microseconds, see above.
+    public final LatencyHistogram playbackToInputMicros = new LatencyHistogram();
+    public final LatencyHistogram inputToReadingMicros = new LatencyHistogram();
+    public final LatencyHistogram readingToDrawnMicros = new LatencyHistogram();
+    public final LatencyHistogram totalMicros = new LatencyHistogram();
+
+    public LatencyTester(MicrophonePitchSource source) {
+        sampleRate = source.getCaptureRate();
+        quietNeeded = sampleRate * kQuietMillis / 1000;
+        // Like the tuner's, but onset detection first to see every sample,
+        // and no idle mode.
+        final PitchPipeline pipeline = new PitchPipeline();
+        pipeline.add(new OnsetStage());
+        pipeline.add(new PipelineStages.Gate(new SilenceGate()));
+        source.addAnalysisStages(pipeline);
+        pipeline.add(new PipelineStages.Quantize());
+        pipeline.add(new PipelineStages.Publish(source.getPitchBus()));
+        source.setPipeline(pipeline);
+        source.getPitchBus().subscribe(this);
+    }
+
+    public void start() {
+        if (player != null) return;  // already running.
+        player = new TonePlayer();
+        player.start();
+    }
+
+    public void stop() {
+        if (player != null) {
+            player.windDown();
+            player = null;
+        }
+    }
+
+    // Bursts played, onsets found in the input and measurements completed.
+    public int getBursts() { return bursts; }
+    public int getDetected() { return detected; }
+    public int getMeasured() { return measured; }
+
+    // Call on the UI thread with every reading shown, null for silence.
+    // Returns true if it is the first one showing a burst; then make sure
+    // the view gets redrawn.
+    public boolean onShown(MeasuredPitch reading) {
+        if (state != kWaitShown || reading == null
+            || reading.sampleIndex < readingSample) {
+            return false;
+        }
+        state = kWaitDrawn;
+        return true;
+    }
+
+    // -- interface DrawListener
+    @Override
+    public void onDrawn(View view) {
+        if (state != kWaitDrawn) return;
+        final long now = System.nanoTime();
+        readingToDrawnMicros.record((now - readingNanos) / 1000);
+        totalMicros.record((now - playedNanos) / 1000);
+        ++measured;
+        state = kWaitOnset;
+    }
+
+    // -- interface PitchSink; on the analysis thread.
+    @Override
+    public void offer(MeasuredPitch reading) {
+        if (state != kWaitReading || reading.isSilence()
+            || reading.note % 12 != kToneNote) {
+            return;
+        }
+        readingNanos = reading.timestampNanos;
+        readingSample = reading.sampleIndex;
+        inputToReadingMicros.record((readingNanos - onsetNanos) / 1000);
+        state = kWaitShown;
+    }
+
+    // Looks for the onset of a burst in the captured audio, and times it
+    // with the sample clock.
+    private final class OnsetStage implements PitchPipeline.Stage {
+        @Override
+        public String getName() { return "onset"; }
+
+        @Override
+        public void process(PitchPipeline.Frame frame) {
+            final double threshold = Math.max(kMinOnsetLevel,
+                                              kOnsetOverNoise * noiseLevel);
+            double peak = 0;
+            for (int i = 0; i < frame.length; ++i) {
+                final double v = Math.abs(frame.shorts != null
+                                          ? frame.shorts.get(i) / 32768.0
+                                          : frame.floats.get(i));
+                if (v > threshold) {
+                    if (quiet >= quietNeeded) onset(frame, i);
+                    quiet = 0;
+                } else {
+                    ++quiet;
+                }
+                if (v > peak) peak = v;
+            }
+            if (quiet >= frame.length) {  // nothing but noise in this frame.
+                noiseLevel = 0.9 * noiseLevel + 0.1 * peak;
+            }
+        }
+
+        private void onset(PitchPipeline.Frame frame, int pos) {
+            final long periodNanos = kPeriodMillis * 1000000L;
+            // The frame's last sample arrived at captureNanos; count back.
+            final long nanos = frame.captureNanos
+                - (frame.length - pos) * 1000000000L / sampleRate;
+            // Give up on a measurement that didn't finish in a period, e.g.
+            // because the screen wasn't drawn.
+            if (state != kWaitOnset && nanos - onsetNanos < periodNanos) {
+                return;
+            }
+            final long played = lastPlayedNanos;
+            if (played == 0 || nanos < played || nanos - played > periodNanos) {
+                return;  // not our burst.
+            }
+            onsetNanos = nanos;
+            playedNanos = played;
+            playbackToInputMicros.record((nanos - played) / 1000);
+            ++detected;
+            state = kWaitReading;
+        }
+
+        private int quiet;
+        private double noiseLevel;
+    }
+
+    // Plays the bursts and notes when AudioTrack actually played them.
+    private final class TonePlayer extends Thread {
+        public TonePlayer() {
+            running = true;
+        }
+
+        public void run() {
+            final int period = sampleRate * kPeriodMillis / 1000;
+            final short samples[] = createBurst(period);
+            final int bufferSize = Math.max(
+                AudioTrack.getMinBufferSize(sampleRate,
+                                            AudioFormat.CHANNEL_OUT_MONO,
+                                            AudioFormat.ENCODING_PCM_16BIT),
+                4 * kWriteChunk);
+            final AudioTrack track = new AudioTrack(
+                AudioManager.STREAM_MUSIC, sampleRate,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                bufferSize, AudioTrack.MODE_STREAM);
+            if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+                track.release();
+                return;
+            }
+            track.play();
+            long written = 0;
+            long burstStart = -1;  // frame of the burst not played yet.
+            while (isRunning()) {
+                final int pos = (int) (written % period);
+                if (pos == 0) burstStart = written;
+                final int count = track.write(samples, pos,
+                                              Math.min(kWriteChunk, period - pos));
+                if (count <= 0) break;
+                written += count;
+                if (burstStart >= 0) {
+                    final long head = track.getPlaybackHeadPosition() & 0xffffffffL;
+                    if (head >= burstStart) {
+                        lastPlayedNanos = System.nanoTime()
+                            - (head - burstStart) * 1000000000L / sampleRate;
+                        burstStart = -1;
+                        ++bursts;
+                    }
+                }
+            }
+            track.stop();
+            track.release();
+        }
+
+        private synchronized boolean isRunning() { return running; }
+        public synchronized void windDown() {
+            running = false;
+        }
+
+        private boolean running;
+    }
+
+    // One period: the burst with short ramps, then silence.
+    private short[] createBurst(int period) {
+        final short result[] = new short[period];
+        final int burst = sampleRate * kBurstMillis / 1000;
+        final int ramp = sampleRate * kRampMillis / 1000;
+        for (int i = 0; i < burst; ++i) {
+            final double envelope = Math.min(1.0, Math.min(i, burst - 1 - i)
+                                             / (double) ramp);
+            result[i] = (short) (32767 * kToneLevel * envelope
+                * Math.sin(2 * Math.PI * kToneFrequency * i / sampleRate));
+        }
+        return result;
+    }
+
+    private final int sampleRate;
+    private final int quietNeeded;
+    private TonePlayer player;
+
+    // One measurement at a time, handed from thread to thread: each step
+    // fills in its fields, then advances the state.
+    private volatile int state = kWaitOnset;
+    private volatile long lastPlayedNanos;  // written by the TonePlayer.
+    private volatile long playedNanos;
+    private volatile long onsetNanos;
+    private volatile long readingNanos;
+    private volatile long readingSample;
+
+    private volatile int bursts;
+    private volatile int detected;
+    private volatile int measured;
+}
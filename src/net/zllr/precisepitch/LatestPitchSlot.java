@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.zllr.precisepitch.model.MeasuredPitch;
+
+// Coalescing hand-over of the latest pitch reading from one producer thread
+// to one consumer thread: each new reading replaces the previous one if that
+// wasn't picked up yet, so the consumer always gets the freshest reading and
+// nothing piles up, no matter how fast the producer is.
+//
+// Triple buffered: the producer fills its back record and swaps it with the
+// middle one; the consumer swaps its front record with the middle one if
+// that has something new. Both swaps are a single atomic exchange, so
+// neither side ever waits, and a record is never written while being read.
+//
+// As a PitchSink, it takes the latest reading on a PitchBus; the consumer
+// polls it at its own rate.
+public final class LatestPitchSlot implements PitchSink {
+    private static final int kFresh = 4;       // flag on the middle index.
+    private static final int kIndexMask = 3;
+
+    public LatestPitchSlot() {
+        for (int i = 0; i < records.length; ++i) {
+            records[i] = new MeasuredPitch();
+        }
+    }
+
+    // -- Producer side
+
+    // The record to fill with the next reading.
+    public MeasuredPitch acquire() { return records[back]; }
+
+    // Make the record from acquire() the latest reading. If the previous
+    // one wasn't taken yet, it is dropped and counted as missed.
+    public void publish() {
+        final int previous = middle.getAndSet(back | kFresh);
+        if ((previous & kFresh) != 0) {
+            missed = missed + 1;
+        }
+        back = previous & kIndexMask;
+        published = published + 1;
+    }
+
+    @Override
+    public void offer(MeasuredPitch reading) {
+        acquire().copyFrom(reading);
+        publish();
+    }
+
+    // -- Consumer side
+
+    // The latest reading if there was a new one since the last call, null
+    // otherwise. Stays valid until the next call.
+    public MeasuredPitch take() {
+        if ((middle.get() & kFresh) == 0) return null;
+        front = middle.getAndSet(front) & kIndexMask;
+        taken = taken + 1;
+        return records[front];
+    }
+
+    // Readings the consumer took.
+    public long getTaken() { return taken; }
+
+    // Readings published so far.
+    public long getPublished() { return published; }
+
+    // Readings replaced by a newer one before the consumer took them.
+    public long getMissed() { return missed; }
+
+    private final MeasuredPitch records[] = new MeasuredPitch[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;               // only used by the producer.
+    private int front = 2;              // only used by the consumer.
+    private volatile long published;    // only written by the producer.
+    private volatile long missed;       // only written by the producer.
+    private volatile long taken;        // only written by the consumer.
+}
@@ -18,36 +18,239 @@ package net.zllr.precisepitch;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
+import android.os.Build;
 import android.os.Handler;
-import net.zllr.precisepitch.model.MeasuredPitch;
+import android.os.Process;
+
+import java.nio.ByteBuffer;
 
 // Samples the microphone continuously and provides PitchData updates to the
 // handler.
 class MicrophonePitchSource extends Thread implements PitchSource {
+    // Emulator can only do 8kHz. Device 44.1k.
+    public static final int kDefaultSampleRateHz
+        = "sdk".equals(Build.PRODUCT) ? 8000 : 44100;
+
+    // Native rate of most devices; capturing at that rate avoids resampling
+    // in the audio stack and with it some latency.
+    public static final int kLowLatencySampleRateHz = 48000;
+
+    // Never decimate below this; the emulator rate.
+    private static final int kMinAnalysisRateHz = 8000;
+
+    // AudioFormat.ENCODING_PCM_FLOAT; AudioRecord accepts it from API 23.
+    private static final int kEncodingPcmFloat = 4;
+    private static final int kFloatCaptureSdk = 23;
+
     public MicrophonePitchSource() {
         this(60);  // default frequency. Lower: wider window.
     }
 
     public MicrophonePitchSource(int minFrequency) {
-        sampleCount = DyWaPitchTrack.suggestedSamplecount(minFrequency);
-        pitchTracker = new DyWaPitchTrack(sampleCount);
-        final int internalBufferSize = 2 * Math.max(
-                AudioRecord.getMinBufferSize(DyWaPitchTrack.kSampleRateHz,
-                        AudioFormat.CHANNEL_IN_MONO,
-                        AudioFormat.ENCODING_PCM_16BIT),
-                sampleCount);
-        audiorecorder = new AudioRecord(MediaRecorder.AudioSource.MIC,
-                                        DyWaPitchTrack.kSampleRateHz,
-                                        AudioFormat.CHANNEL_IN_MONO,
-                                        AudioFormat.ENCODING_PCM_16BIT,
-                                        internalBufferSize);
+        this(minFrequency, 0);
+    }
+
+    // Create with the given minimum frequency and a new estimate every
+    // 'hopSize' samples, analysing overlapping windows. A hopSize of 0 means
+    // one estimate per full, non-overlapping window.
+    public MicrophonePitchSource(int minFrequency, int hopSize) {
+        this(minFrequency, hopSize, kDefaultSampleRateHz);
+    }
+
+    // Like above, capturing at the given sample rate if the device supports
+    // it, kDefaultSampleRateHz otherwise. Lower rates need less CPU.
+    public MicrophonePitchSource(int minFrequency, int hopSize,
+                                 int sampleRate) {
+        this(minFrequency, hopSize, sampleRate, 1);
+    }
+
+    // Like above, with the captured signal decimated by the given factor
+    // before it reaches the pitch tracker, which then only has to look at a
+    // fraction of the samples. The hopSize is in captured samples.
+    // Note, the wavelet tracker needs about 30 samples per period to be
+    // reliable, so this is only useful for low ranges: decimating 44.1kHz by
+    // 4 works up to about 350Hz.
+    public MicrophonePitchSource(int minFrequency, int hopSize,
+                                 int sampleRate, int decimation) {
+        this(minFrequency, hopSize, sampleRate, decimation,
+             PitchDetector.Engine.WAVELET);
+    }
+
+    // Like above, analyzing with the given pitch detection engine.
+    public MicrophonePitchSource(int minFrequency, int hopSize,
+                                 int sampleRate, int decimation,
+                                 PitchDetector.Engine engine) {
+        this(InstrumentRange.fromMinFrequency(minFrequency), hopSize,
+             sampleRate, decimation, engine);
+    }
+
+    // Tuned for the given range: the window only needs to be large enough
+    // for its lowest note, and the signal is decimated as far as its
+    // highest note allows.
+    public MicrophonePitchSource(InstrumentRange range, int hopSize) {
+        this(range, hopSize, kDefaultSampleRateHz,
+             range.getDecimation(kDefaultSampleRateHz),
+             PitchDetector.Engine.WAVELET);
+    }
+
+    public MicrophonePitchSource(InstrumentRange range, int hopSize,
+                                 int sampleRate, int decimation,
+                                 PitchDetector.Engine engine) {
+        if (AudioRecord.getMinBufferSize(sampleRate,
+                                         AudioFormat.CHANNEL_IN_MONO,
+                                         AudioFormat.ENCODING_PCM_16BIT) <= 0) {
+            sampleRate = kDefaultSampleRateHz;  // not supported.
+        }
+        while (decimation > 1
+               && sampleRate / decimation < kMinAnalysisRateHz) {
+            --decimation;
+        }
+        if (decimation > 1) {
+            decimator = new Decimator(sampleRate, decimation,
+                                      range.getWaveletMaxFrequency());
+        }
+        captureRate = sampleRate;
+        final int analysisRate = sampleRate / decimation;
+        detector = engine.create(analysisRate, range);
+        sampleCount = detector.getSampleCount();
+        if (hopSize <= 0) hopSize = sampleCount * decimation;
+        captureHopSize = hopSize;
+        if (decimator != null || hopSize != sampleCount) {
+            window = new StreamingWindow(sampleCount);
+            final int trackerHop = Math.max(1, hopSize / decimation);
+            window.setHopSize(Math.min(trackerHop, sampleCount));
+        }
+
+        gateStage = new PipelineStages.Gate(new SilenceGate());
+        strobeStage = new PipelineStages.Strobe();
+        pipeline = new PitchPipeline();
+        pipeline.add(gateStage);
+        addAnalysisStages(pipeline);
+        pipeline.add(new PipelineStages.Quantize());
+        pipeline.add(strobeStage);
+        pipeline.add(new PipelineStages.Publish(bus));
+        pipeline.setMetrics(metrics);
+
         state = SamplingState.RUNNING;
         stateLock = new Object();
     }
 
+    // Add the stages that depend on how this source was set up: decimation,
+    // if any, and the detector with its window. For assembling a pipeline
+    // of your own.
+    public void addAnalysisStages(PitchPipeline target) {
+        if (decimator != null) {
+            target.add(new PipelineStages.Decimate(decimator, captureHopSize));
+        }
+        target.add(new PipelineStages.Detect(detector, window, decimator));
+    }
+
+    // Replace the default pipeline
+    //   gate -> [decimate] -> detect -> quantize -> strobe -> publish
+    // with one of your own; the settings below only apply to the stages of
+    // the default one. Call before startSampling().
+    public void setPipeline(PitchPipeline pipeline) {
+        pipeline.setMetrics(metrics);
+        this.pipeline = pipeline;
+    }
+    public PitchPipeline getPipeline() { return pipeline; }
+
+    public PitchDetector getDetector() { return detector; }
+    public int getCaptureRate() { return captureRate; }
+
+    // Set the gate deciding which frames are worth analyzing; frames it
+    // rejects are reported as silence right away. Default is a SilenceGate
+    // with default parameters; null analyzes everything.
+    // Call before startSampling().
+    public void setSilenceGate(SilenceGate gate) { gateStage.setGate(gate); }
+
+    // Low power idle mode: after idleAfterSeconds without voiced input,
+    // only one short probe of every probeInterval captured frames is looked
+    // at; everything else is dropped right after reading. As soon as a probe
+    // is voiced, we're back to full rate. So waking up takes at most
+    // getMaxWakeupMillis(). Requires a silence gate. idleAfterSeconds <= 0
+    // disables (default). Call before startSampling().
+    public void setIdleMode(double idleAfterSeconds, int probeInterval) {
+        gateStage.setIdleMode(
+            idleAfterSeconds <= 0
+            ? 0
+            : (int) Math.ceil(idleAfterSeconds * captureRate / captureHopSize),
+            probeInterval);
+    }
+
+    // Upper bound of the time from sound starting until we're back to full
+    // rate when in idle mode.
+    public long getMaxWakeupMillis() {
+        return 1000L * gateStage.getProbeInterval() * captureHopSize
+            / captureRate;
+    }
+
+    // Number of times we went idle and woke up again.
+    public int getIdleWakeups() { return gateStage.getIdleWakeups(); }
+
+    // In strobe mode, the pitch detector only determines the note; the
+    // reported frequency comes from a StrobeTuner comparing the signal with
+    // that note, precise to a fraction of a cent once it had about half a
+    // second of the note. Can be switched while sampling.
+    public void setStrobeMode(boolean on) {
+        strobeStage.setTuner(on ? new StrobeTuner(captureRate) : null);
+    }
+    public boolean isStrobeMode() { return strobeStage.getTuner() != null; }
+
+    // Capture into direct ByteBuffers that the detector reads in place,
+    // as float samples where the device supports it (Android 6+), 16 bit
+    // PCM otherwise. Saves copying and converting every sample on the way
+    // to the detector. Not used when decimating: the decimator works on
+    // arrays. Call before startSampling().
+    public void setDirectBufferCapture(boolean on) { directCapture = on; }
+
+    // Storage the samples are captured into; known once sampling started.
+    public PcmRing.Storage getCaptureStorage() {
+        final PcmRing r = ring;
+        return r != null ? r.getStorage() : null;
+    }
+
+    // If capturing stopped because the AudioRecord reported an error, the
+    // error code (AudioRecord.ERROR_*), 0 otherwise.
+    public int getCaptureError() { return captureError; }
+
     // Set handler for messages generated from this runnable.
     @Override
-    public void setHandler(Handler handler) { this.handler = handler; }
+    public void setHandler(Handler handler) {
+        if (handlerEvents != null) handlerEvents.unsubscribe(bus);
+        handlerEvents = handler != null
+            ? PitchEventRing.subscribe(bus, handler) : null;
+    }
+
+    @Override
+    public void setLatestPitchSlot(LatestPitchSlot slot) {
+        if (latestSlot != null) bus.unsubscribe(latestSlot);
+        latestSlot = slot;
+        if (slot != null) bus.subscribe(slot);
+    }
+
+    @Override
+    public PitchBus getPitchBus() { return bus; }
+
+    // Snapshot of the performance metrics, including the counters of the
+    // capture ring and the consumers.
+    public void getMetrics(PitchMetrics.Snapshot out) {
+        metrics.snapshot(out);
+        out.overruns = getOverruns();
+        out.underruns = getUnderruns();
+        out.droppedEvents = getDroppedEvents();
+        final LatestPitchSlot slot = latestSlot;
+        out.missedReadings = slot != null ? slot.getMissed() : 0;
+        out.displayedReadings = slot != null ? slot.getTaken() : 0;
+    }
+
+    public PitchMetrics getPitchMetrics() { return metrics; }
+
+    // Measurements dropped because the handler didn't keep up.
+    public long getDroppedEvents() {
+        final PitchEventRing events = handlerEvents;
+        return events != null ? events.getDropped() : 0;
+    }
 
     @Override
     public void startSampling() {
@@ -67,44 +270,194 @@ class MicrophonePitchSource extends Thread implements PitchSource {
         }
     }
 
-    // Runnable/Thread main method.
+    // Runnable/Thread main method. This thread only captures; the frames are
+    // handed to a separate analysis thread through a lock-free ring, so that
+    // a slow pitch computation doesn't make us miss audio.
     @Override
     public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        final PcmRing.Storage storage = openRecorder();
+        // About a second of audio between capture and analysis.
+        ring = new PcmRing(Math.max(kMinRingFrames,
+                                    captureRate / captureHopSize),
+                           captureHopSize, storage);
+        ring.setFramePeriodNanos(1000000000L * captureHopSize / captureRate);
+        final Thread analysis = new Thread(new Runnable() {
+                public void run() { analysisLoop(); }
+            }, "pitch-analysis");
         audiorecorder.startRecording();
+        analysis.start();
 
-        samplingLoop();
+        if (storage == PcmRing.Storage.SHORT_ARRAY) {
+            captureArrays();
+        } else {
+            captureBuffers(storage == PcmRing.Storage.DIRECT_FLOAT ? 4 : 2);
+        }
 
         audiorecorder.stop();
         audiorecorder.release();
         audiorecorder = null;
+        try {
+            analysis.join();
+        } catch (InterruptedException e) {
+            // So be it.
+        }
+        if (detector instanceof MultiResolutionPitchDetector) {
+            ((MultiResolutionPitchDetector) detector).shutdown();
+        }
         synchronized (stateLock) {
             state = SamplingState.STOPPED;
             stateLock.notify();
         }
     }
 
-    private void samplingLoop() {
-        final short buffer[] = new short[sampleCount];
-        final double samples[] = new double[sampleCount];
+    // Number of frames dropped because the analysis didn't keep up.
+    public long getOverruns() {
+        final PcmRing r = ring;
+        return r != null ? r.getOverruns() : 0;
+    }
+
+    // Number of times captured audio came late for the analysis.
+    public long getUnderruns() {
+        final PcmRing r = ring;
+        return r != null ? r.getUnderruns() : 0;
+    }
+
+    // Creates the AudioRecord for the capture mode and returns the matching
+    // ring storage. Falls back to 16 bit arrays if the device doesn't
+    // support what is asked for.
+    private PcmRing.Storage openRecorder() {
+        if (directCapture && decimator == null) {
+            if (Build.VERSION.SDK_INT >= kFloatCaptureSdk) {
+                audiorecorder = createRecorder(kEncodingPcmFloat, 4);
+                if (audiorecorder != null)
+                    return PcmRing.Storage.DIRECT_FLOAT;
+            }
+            audiorecorder = createRecorder(AudioFormat.ENCODING_PCM_16BIT, 2);
+            return PcmRing.Storage.DIRECT_SHORT;
+        }
+        audiorecorder = createRecorder(AudioFormat.ENCODING_PCM_16BIT, 2);
+        return PcmRing.Storage.SHORT_ARRAY;
+    }
+
+    // Returns null if the encoding is not supported.
+    private AudioRecord createRecorder(int encoding, int bytesPerSample) {
+        final int minBufferSize = AudioRecord.getMinBufferSize(
+            captureRate, AudioFormat.CHANNEL_IN_MONO, encoding);
+        if (minBufferSize <= 0 && encoding != AudioFormat.ENCODING_PCM_16BIT)
+            return null;
+        final int internalBufferSize = 2 * Math.max(
+            minBufferSize,
+            bytesPerSample * Math.max(sampleCount, captureHopSize));
+        final AudioRecord recorder = new AudioRecord(
+            MediaRecorder.AudioSource.MIC, captureRate,
+            AudioFormat.CHANNEL_IN_MONO, encoding, internalBufferSize);
+        if (recorder.getState() != AudioRecord.STATE_INITIALIZED
+            && encoding != AudioFormat.ENCODING_PCM_16BIT) {
+            recorder.release();
+            return null;
+        }
+        return recorder;
+    }
+
+    private void captureArrays() {
+        // If the ring is full, we still need to drain the recorder to keep
+        // it from overflowing; that data is lost and counted as an overrun.
+        final short discard[] = new short[captureHopSize];
         while (isSamplingRunning()) {
+            short buffer[] = ring.acquireWrite();
+            final boolean dropped = (buffer == null);
+            if (dropped) buffer = discard;
             int read = 0;
-            while (read < buffer.length) {
-                int r = audiorecorder.read(buffer, read, buffer.length - read);
-                if (r > 0) read += r;
+            while (read < buffer.length && isSamplingRunning()) {
+                final PitchTrace.Tracer trace = PitchTrace.begin(kTraceRead);
+                final int r = audiorecorder.read(buffer, read,
+                                                 buffer.length - read);
+                PitchTrace.end(trace);
+                if (!handleRead(r)) return;
+                read += r;
+            }
+            if (dropped) {
+                ring.skipWrite(read);
+            } else if (read == buffer.length) {
+                ring.commitWrite(read);
             }
-            int maxValue = 0;
-            for (int i = 0; i < sampleCount; ++i) {
-                samples[i] = buffer[i] / 32768.0;
-                int localMax = Math.abs(buffer[i]);
-                maxValue = maxValue < localMax ? localMax : maxValue;
+        }
+    }
+
+    // The recorder writes straight into the direct buffers of the ring.
+    private void captureBuffers(int bytesPerSample) {
+        final ByteBuffer discard = ByteBuffer.allocateDirect(
+            bytesPerSample * captureHopSize);
+        while (isSamplingRunning()) {
+            ByteBuffer buffer = ring.acquireWriteBuffer();
+            final boolean dropped = (buffer == null);
+            if (dropped) buffer = discard;
+            final int size = buffer.capacity();
+            int read = 0;
+            while (read < size && isSamplingRunning()) {
+                // read() fills from the start of the buffer; the rare short
+                // read continues in a slice behind what we already have.
+                ByteBuffer target = buffer;
+                if (read > 0) {
+                    buffer.position(read);
+                    target = buffer.slice();
+                }
+                final PitchTrace.Tracer trace = PitchTrace.begin(kTraceRead);
+                final int r = audiorecorder.read(target, size - read);
+                PitchTrace.end(trace);
+                if (!handleRead(r)) return;
+                read += r;
+            }
+            if (dropped) {
+                ring.skipWrite(read / bytesPerSample);
+            } else if (read == size) {
+                ring.commitWrite(read / bytesPerSample);
+            }
+        }
+    }
+
+    // Deal with the result of AudioRecord.read(). Returns false if capturing
+    // has to stop. A read returning nothing is retried after a short pause,
+    // rather than spinning on the recorder.
+    private boolean handleRead(int result) {
+        if (result > 0) return true;
+        if (result == 0) {
+            try {
+                Thread.sleep(kEmptyReadRetryMillis);
+            } catch (InterruptedException e) {
+                // Check the state on the next round.
             }
-            final double pitch = pitchTracker.computePitch(samples);
-            final MeasuredPitch nc = MeasuredPitch.createPitchData(pitch, maxValue/32768.0);
-            if (handler != null) {
-                handler.sendMessage(handler.obtainMessage(0, nc));
+            return true;
+        }
+        captureError = result;
+        synchronized (stateLock) {
+            if (state == SamplingState.RUNNING)
+                state = SamplingState.STOP_REQUESTED;
+        }
+        return false;
+    }
+
+    private void analysisLoop() {
+        final boolean floats
+            = (ring.getStorage() == PcmRing.Storage.DIRECT_FLOAT);
+        final PitchPipeline.Frame frame = new PitchPipeline.Frame();
+        frame.sampleRate = captureRate;
+        while (isSamplingRunning()) {
+            if (!ring.awaitFrame(kAnalysisWaitMillis)) continue;
+            if (floats) {
+                frame.shorts = null;
+                frame.floats = ring.acquireReadFloats();
+            } else {
+                frame.shorts = ring.acquireReadShorts();
+                frame.floats = null;
             }
+            frame.length = ring.getReadLength();
+            frame.captureNanos = ring.getReadTimestamp();
+            frame.sampleIndex = ring.getReadSampleIndex();
+            pipeline.process(frame);
+            ring.releaseRead();
         }
-        handler = null;
     }
 
     private boolean isSamplingRunning() {
@@ -113,10 +466,30 @@ class MicrophonePitchSource extends Thread implements PitchSource {
         }
     }
 
-    private int sampleCount;
-    private DyWaPitchTrack pitchTracker;
+    private int sampleCount;       // analysis window, in decimated samples.
+    private int captureHopSize;    // samples read from the microphone at once.
+    private Decimator decimator;   // null if not decimating.
+    private int captureRate;
+
+    private PitchPipeline pipeline;
+    private final PitchMetrics metrics = new PitchMetrics();
+    private final PipelineStages.Gate gateStage;
+    private final PipelineStages.Strobe strobeStage;
+
+    private static final int kMinRingFrames = 8;
+    private static final long kAnalysisWaitMillis = 100;
+    private static final long kEmptyReadRetryMillis = 2;
+    private static final String kTraceRead = "AudioRecord.read";
+    private volatile PcmRing ring;     // created when sampling starts.
+    private boolean directCapture;
+    private volatile int captureError;
+
+    private PitchDetector detector;
+    private StreamingWindow window;   // null if each frame is a window.
     private AudioRecord audiorecorder;
-    private Handler handler;   // This is the handler we post NoteCents to.
+    private final PitchBus bus = new PitchBus();
+    private volatile PitchEventRing handlerEvents;  // setHandler()
+    private LatestPitchSlot latestSlot;             // setLatestPitchSlot()
     enum SamplingState {
         RUNNING,
         STOP_REQUESTED,
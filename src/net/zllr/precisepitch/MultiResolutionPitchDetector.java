@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Runs wavelet trackers with different window sizes on the same signal,
+// each on its own thread, and fuses the results.
+// A short window only covers the most recent samples, so it follows high
+// notes quickly, but it can't see the low ones; a long window covers the
+// whole range, but only reacts after it is filled with the new note.
+// The short windows are the tail of the longest window. The result is the
+// estimate of the shortest window that is confident, i.e. that found a
+// pitch in the range it can reliably detect.
+public final class MultiResolutionPitchDetector extends AbstractPitchDetector {
+    // One wavelet tracker per range, set up for it like the WAVELET engine
+    // does; its window is sized for the lowest frequency of the range. The
+    // lowest of all determines getSampleCount().
+    public MultiResolutionPitchDetector(int sampleRate,
+                                        InstrumentRange... ranges) {
+        super(sampleRate, longestWindow(sampleRate, ranges));
+        final InstrumentRange sorted[] = ranges.clone();
+        Arrays.sort(sorted, new Comparator<InstrumentRange>() {
+                public int compare(InstrumentRange a, InstrumentRange b) {
+                    return b.getMinFrequency() - a.getMinFrequency();
+                }
+            });
+        final boolean parallel = Runtime.getRuntime().availableProcessors() > 1;
+        resolutions = new Resolution[sorted.length];
+        for (int i = 0; i < sorted.length; ++i) {
+            // Shortest window first.
+            final InstrumentRange range = sorted[i];
+            final DyWaPitchTrack tracker = new DyWaPitchTrack(
+                sampleRate,
+                DyWaPitchTrack.suggestedSamplecount(sampleRate,
+                                                    range.getMinFrequency()),
+                range.getWaveletMaxFrequency(),
+                range.getWaveletLevels(sampleRate));
+            tracker.setInterpolateExtrema(true);
+            // The longest window is done on the calling thread.
+            final boolean threaded = parallel && i < sorted.length - 1;
+            resolutions[i] = new Resolution(tracker, range.getMinFrequency(),
+                                            threaded);
+        }
+        longest = resolutions[resolutions.length - 1].tracker;
+    }
+
+    // One tracker per minimum frequency, with the default wavelet tuning
+    // (see InstrumentRange.fromMinFrequency()).
+    public MultiResolutionPitchDetector(int sampleRate, int... minFrequencies) {
+        this(sampleRate, fromMinFrequencies(minFrequencies));
+    }
+
+    private static InstrumentRange[] fromMinFrequencies(int minFrequencies[]) {
+        final InstrumentRange ranges[] =
+            new InstrumentRange[minFrequencies.length];
+        for (int i = 0; i < minFrequencies.length; ++i) {
+            ranges[i] = InstrumentRange.fromMinFrequency(minFrequencies[i]);
+        }
+        return ranges;
+    }
+
+    private static int longestWindow(int sampleRate,
+                                     InstrumentRange ranges[]) {
+        if (ranges.length == 0) {
+            throw new IllegalArgumentException("Need at least one resolution.");
+        }
+        int lowest = ranges[0].getMinFrequency();
+        for (InstrumentRange r : ranges) {
+            lowest = Math.min(lowest, r.getMinFrequency());
+        }
+        return DyWaPitchTrack.suggestedSamplecount(sampleRate, lowest);
+    }
+
+    @Override
+    public double getLastPeak() { return longest.getLastPeak(); }
+
+    @Override
+    public double computePitch(double samples[], int offset) {
+        final int end = offset + samplecount;
+        for (Resolution r : resolutions) {
+            r.submit(samples, end - r.tracker.getSampleCount());
+        }
+        // While the threads work on theirs, do ours.
+        for (Resolution r : resolutions) {
+            r.runInline();
+        }
+        double pitch = 0.0;
+        for (Resolution r : resolutions) {
+            final double candidate = r.await();
+            if (pitch == 0.0 && candidate > 0.0
+                && (candidate >= r.minFrequency || r.tracker == longest)) {
+                pitch = candidate;
+            }
+        }
+        return tracking.track(pitch);
+    }
+
+    // Stop the worker threads. Further windows are computed on the calling
+    // thread only.
+    public void shutdown() {
+        for (Resolution r : resolutions) {
+            r.shutdown();
+        }
+    }
+
+    // A tracker, possibly with its own thread. Samples are handed over
+    // without copying; the caller waits for all results before the samples
+    // are touched again.
+    // The thread is only started with the first window, so a detector that
+    // is created but never used doesn't leave threads behind.
+    //
+    // Each window gets the raw wavelet pitch, not the tracker's
+    // computePitch(): the continuity filter is applied once, to the fused
+    // pitch. Filtering each window as well would hold back the short
+    // window's new notes for as long as the filter waits for confirmation,
+    // which is what the short window is there to avoid.
+    private static final class Resolution implements Runnable {
+        Resolution(DyWaPitchTrack tracker, int minFrequency, boolean threaded) {
+            this.tracker = tracker;
+            this.minFrequency = minFrequency;
+            this.threaded = threaded;
+        }
+
+        synchronized void submit(double samples[], int offset) {
+            this.samples = samples;
+            this.offset = offset;
+            pending = true;
+            if (threaded && thread == null && !stopped) {
+                thread = new Thread(this, "pitch-" + minFrequency + "Hz");
+                thread.setDaemon(true);
+                thread.start();
+            } else if (thread != null) {
+                notify();
+            }
+        }
+
+        // Without a thread of its own, compute the submitted samples right
+        // here, on the caller's thread.
+        synchronized void runInline() {
+            if (thread != null || !pending) return;
+            result = tracker.computeWaveletPitch(samples, offset);
+            pending = false;
+        }
+
+        // The result for the submitted samples, once computed.
+        synchronized double await() {
+            try {
+                while (pending && !stopped)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0.0;  // No time to wait for this one.
+            }
+            return pending ? 0.0 : result;
+        }
+
+        // Afterwards, windows are computed on the caller's thread.
+        synchronized void shutdown() {
+            stopped = true;
+            thread = null;
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                final double input[];
+                final int inputOffset;
+                synchronized (this) {
+                    try {
+                        while (!pending && !stopped)
+                            wait();
+                    } catch (InterruptedException e) {
+                        stopped = true;
+                    }
+                    if (stopped) {
+                        thread = null;
+                        notifyAll();
+                        return;
+                    }
+                    input = samples;
+                    inputOffset = offset;
+                }
+                final double pitch = tracker.computeWaveletPitch(input,
+                                                                 inputOffset);
+                synchronized (this) {
+                    result = pitch;
+                    pending = false;
+                    notifyAll();
+                }
+            }
+        }
+
+        final DyWaPitchTrack tracker;
+        final int minFrequency;
+        private final boolean threaded;
+        private Thread thread;   // null: computed on the caller's thread.
+        private double samples[];
+        private int offset;
+        private boolean pending;
+        private boolean stopped;
+        private double result;
+    }
+
+    private final Resolution resolutions[];   // shortest window first.
+    private final DyWaPitchTrack longest;
+}
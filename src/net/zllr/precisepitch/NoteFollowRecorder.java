@@ -45,7 +45,13 @@ public class NoteFollowRecorder {
     private static final int kFutureNoteColor = Color.rgb(200, 200, 200);
 
     private static final int kHightlightColor = Color.argb(70, 0xff, 0xff, 0);
-    private final static int kHoldTime = 15;
+    // Seconds a note needs to be held in tune. What used to be 15 readings
+    // of a 4096 sample window at 44.1kHz.
+    private final static double kHoldSeconds = 1.4;
+    // Longest time a single reading counts for; longer gaps between
+    // readings (e.g. the gate idling) don't count as played. Above the
+    // time between readings for the lowest notes we follow.
+    private final static double kMaxReadingSeconds = 0.25;
 
     private final StaffView staff;
     private final NoteDocument model;
@@ -54,7 +60,8 @@ public class NoteFollowRecorder {
     private final PitchReceiver handler;
     private PitchSource pitchPoster;
     private int modelPos;
-    private int ticksInTune;
+    private double secondsInTune;
+    private double lastReadingSeconds;  // NaN: no reading yet.
     private boolean running;
 
     // A eventListener for events happening while following notes.
@@ -79,8 +86,10 @@ public class NoteFollowRecorder {
         void onSilence();
 
         // The note was found, this callback needs to decide if the given range
-        // of cents is acceptable (-50..+50)
-        boolean isInTune(double cent, int ticksInTuneSoFar);
+        // of cents is acceptable (-50..+50). The reading stands for the last
+        // 'seconds' of playing.
+        boolean isInTune(double cent, double seconds,
+                         double secondsInTuneSoFar);
 
         // Done with the current note started in onStartNote()
         void onFinishedNote();
@@ -128,17 +137,41 @@ public class NoteFollowRecorder {
         }
         staff.ensureNoteInView(modelPos);
         if (running && pitchPoster == null) {
+            lastReadingSeconds = Double.NaN;  // new source, new clock.
             if (isAutoFollow) {
                 pitchPoster = new DebugPitchSource();
                 ((DebugPitchSource)pitchPoster).setExpectedPitch(model.get(modelPos).getFrequency());
             } else {
-                pitchPoster = new MicrophonePitchSource();
+                final MicrophonePitchSource source = new MicrophonePitchSource(
+                    rangeOf(model), 0);
+                // Following notes doesn't need the strobe.
+                final PitchPipeline pipeline = new PitchPipeline();
+                pipeline.add(new PipelineStages.Gate(new SilenceGate()));
+                source.addAnalysisStages(pipeline);
+                pipeline.add(new PipelineStages.Quantize());
+                pipeline.add(new PipelineStages.Publish(source.getPitchBus()));
+                source.setPipeline(pipeline);
+                pitchPoster = source;
             }
             pitchPoster.setHandler(handler);
             pitchPoster.startSampling();
         }
     }
 
+    // The range spanned by the notes in the document. DEFAULT if empty.
+    private static InstrumentRange rangeOf(NoteDocument document) {
+        if (document == null || document.isEmpty()) {
+            return InstrumentRange.DEFAULT;
+        }
+        double lowest = Double.MAX_VALUE;
+        double highest = 0;
+        for (DisplayNote n : document.getNotes()) {
+            lowest = Math.min(lowest, n.getFrequency());
+            highest = Math.max(highest, n.getFrequency());
+        }
+        return InstrumentRange.forNotes(lowest, highest);
+    }
+
     private void advanceNote() {
         DisplayNote currentNote;
         if (modelPos >= 0) {
@@ -163,15 +196,15 @@ public class NoteFollowRecorder {
         if (isAutoFollow && pitchPoster instanceof DebugPitchSource) {
             ((DebugPitchSource) pitchPoster).setExpectedPitch(currentNote.getFrequency());
         }
-        ticksInTune = 0;
+        secondsInTune = 0;
         staff.ensureNoteInView(modelPos);
         staff.onModelChanged();
     }
 
     // Some abstraction of progress.
     private interface ProgressProvider {
-        int getMaxProgress();
-        int getCurrentProgress();
+        double getMaxProgress();
+        double getCurrentProgress();
     }
 
     // Most of our implementation is in this inner class, extending and
@@ -181,18 +214,35 @@ public class NoteFollowRecorder {
     // The PitchReceiver receives the messages from the MicrophonePitchSource.
     private class PitchReceiver extends Handler implements ProgressProvider {
         // --- interface ProgressProvider
-        public int getMaxProgress() { return kHoldTime; }
-        public int getCurrentProgress() { return ticksInTune; }
+        public double getMaxProgress() { return kHoldSeconds; }
+        public double getCurrentProgress() { return secondsInTune; }
 
         public void handleMessage(Message msg) {
-            if (!running)
-                return;  // Received a sample, but we're done already.
-            if (msg.obj == null) {
-                eventListener.onSilence();
-                return;
+            final PitchEventRing events = (PitchEventRing) msg.obj;
+            MeasuredPitch record;
+            while ((record = events.poll()) != null) {
+                if (!running)
+                    continue;  // Received a sample, but we're done already.
+                final double seconds = elapsedSeconds(record);
+                if (record.isSilence()) {
+                    eventListener.onSilence();
+                } else {
+                    onPitch(record, seconds);
+                }
             }
-            final MeasuredPitch data = (MeasuredPitch) msg.obj;
-            final int beforeTicks = ticksInTune;
+        }
+
+        // Time on the sample clock since the previous reading.
+        private double elapsedSeconds(MeasuredPitch record) {
+            final double now = record.getSeconds();
+            final double elapsed = now - lastReadingSeconds;
+            lastReadingSeconds = now;
+            if (!(elapsed > 0)) return 0;  // first reading, or clock reset.
+            return Math.min(elapsed, kMaxReadingSeconds);
+        }
+
+        private void onPitch(MeasuredPitch data, double seconds) {
+            final double beforeSeconds = secondsInTune;
 
             final DisplayNote expectedNote = model.get(modelPos);
             int gotNote = data.note;
@@ -201,22 +251,22 @@ public class NoteFollowRecorder {
             // matter the octave: good.
             int noteDiff = (gotNote + 12 - wantNote + 6) % 12 - 6;
             if (noteDiff == 0) {
-                if (eventListener.isInTune(data.cent, ticksInTune)) {
-                    ++ticksInTune;
+                if (eventListener.isInTune(data.cent, seconds, secondsInTune)) {
+                    secondsInTune += seconds;
                 } else {
-                    --ticksInTune;  // wrong cent: one penalty
+                    secondsInTune -= seconds;  // wrong cent: one penalty
                 }
             } else {
-                ticksInTune -= 2;  // different note: two penalty
+                secondsInTune -= 2 * seconds;  // different note: two penalty
                 eventListener.onNoteMiss(noteDiff);
             }
-            if (ticksInTune < 0)   // too much penalty accrued :)
-                ticksInTune = 0;
+            if (secondsInTune < 0)   // too much penalty accrued :)
+                secondsInTune = 0;
 
-            if (ticksInTune >= kHoldTime) {
+            if (secondsInTune >= kHoldSeconds) {
                 advanceNote();
             }
-            if (beforeTicks != ticksInTune) {
+            if (beforeSeconds != secondsInTune) {
                 staff.onModelChanged();  // force redraw ('clock')
             }
         }
@@ -261,8 +311,8 @@ public class NoteFollowRecorder {
             float centerX = drawBox.left + (drawBox.right - drawBox.left) / 2;
             RectF timerBox = new RectF(centerX - timerRadius, centerY - timerRadius,
                                        centerX + timerRadius, centerY + timerRadius);
-            float clockDegrees = 360.0f * progressProvider.getCurrentProgress()
-                    / progressProvider.getMaxProgress();
+            float clockDegrees = (float) (360.0 * progressProvider.getCurrentProgress()
+                    / progressProvider.getMaxProgress());
             canvas.drawArc(timerBox, -90, clockDegrees, true, progressPaint);
             canvas.drawOval(timerBox, borderPaint);
         }
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Ring of preallocated PCM frames handed from exactly one producer thread
+// (capture) to exactly one consumer thread (analysis) without locks.
+// The producer fills the frame returned by acquireWrite() and publishes it
+// with commitWrite(); the consumer waits for it with awaitFrame(), reads it
+// and hands it back with releaseRead(). Each side only writes its own
+// counter, so volatile reads and writes are all the synchronization needed.
+//
+//   producer:                            consumer:
+//     short frame[] = ring.acquireWrite();   if (ring.awaitFrame(timeout)) {
+//     if (frame == null) ... overrun           use(ring.acquireReadShorts(),
+//     fill(frame);                                 ring.getReadLength());
+//     ring.commitWrite(length);                ring.releaseRead();
+//                                            }
+//
+// The ring also keeps the sample clock: each frame knows the index of its
+// first sample since capturing started. Data the producer had to drop is
+// accounted for with skipWrite(), so that gaps don't shift the clock.
+//
+// Frames are either short[] arrays, or direct ByteBuffers in native byte
+// order that AudioRecord can write to without a copy; the consumer sees
+// them through a ShortBuffer or FloatBuffer view.
+public final class PcmRing {
+    public enum Storage {
+        SHORT_ARRAY,    // 16 bit PCM in short[]
+        DIRECT_SHORT,   // 16 bit PCM in a direct ByteBuffer
+        DIRECT_FLOAT,   // float PCM in a direct ByteBuffer
+    }
+
+    public PcmRing(int frames, int frameSize) {
+        this(frames, frameSize, Storage.SHORT_ARRAY);
+    }
+
+    public PcmRing(int frames, int frameSize, Storage storage) {
+        this.frameSize = frameSize;
+        this.storage = storage;
+        lengths = new int[frames];
+        timestamps = new long[frames];
+        sampleIndices = new long[frames];
+        if (storage == Storage.SHORT_ARRAY) {
+            arrays = new short[frames][frameSize];
+            buffers = null;
+        } else {
+            arrays = null;
+            buffers = new ByteBuffer[frames];
+        }
+        shortViews = new ShortBuffer[frames];
+        floatViews = storage == Storage.DIRECT_FLOAT
+            ? new FloatBuffer[frames] : null;
+        for (int i = 0; i < frames; ++i) {
+            switch (storage) {
+            case SHORT_ARRAY:
+                shortViews[i] = ShortBuffer.wrap(arrays[i]);
+                break;
+            case DIRECT_SHORT:
+                buffers[i] = ByteBuffer.allocateDirect(2 * frameSize)
+                    .order(ByteOrder.nativeOrder());
+                shortViews[i] = buffers[i].asShortBuffer();
+                break;
+            case DIRECT_FLOAT:
+                buffers[i] = ByteBuffer.allocateDirect(4 * frameSize)
+                    .order(ByteOrder.nativeOrder());
+                floatViews[i] = buffers[i].asFloatBuffer();
+                break;
+            }
+        }
+    }
+
+    // Time it takes to capture a frame. Waiting longer than that for one
+    // counts as an underrun; 0 (default) only counts timeouts. Set before
+    // the consumer starts.
+    public void setFramePeriodNanos(long nanos) { framePeriodNanos = nanos; }
+
+    public int getFrameSize() { return frameSize; }
+    public int getCapacity() { return lengths.length; }
+    public Storage getStorage() { return storage; }
+
+    // Number of frames ready to be read.
+    public int available() { return (int) (written - read); }
+
+    // -- Producer side
+
+    // Returns the next frame to fill, or null if the ring is full; the
+    // consumer didn't keep up. That is counted as an overrun: the caller
+    // will have to drop the data. For SHORT_ARRAY storage.
+    public short[] acquireWrite() {
+        return hasRoom() ? arrays[slot(written)] : null;
+    }
+
+    // Same for direct storage. The buffer is cleared; its capacity is
+    // the frame size in bytes.
+    public ByteBuffer acquireWriteBuffer() {
+        if (!hasRoom()) return null;
+        final ByteBuffer buffer = buffers[slot(written)];
+        buffer.clear();
+        return buffer;
+    }
+
+    // Publish the frame from acquireWrite(), with 'length' valid samples.
+    public void commitWrite(int length) {
+        timestamps[slot(written)] = System.nanoTime();
+        lengths[slot(written)] = length;
+        sampleIndices[slot(written)] = samplesWritten;
+        samplesWritten += length;
+        written = written + 1;  // volatile write publishes the frame.
+        final Thread waiting = consumer;
+        if (waiting != null) LockSupport.unpark(waiting);
+    }
+
+    // Account for 'length' samples that were captured but dropped, e.g.
+    // after an overrun.
+    public void skipWrite(int length) {
+        samplesWritten += length;
+    }
+
+    // -- Consumer side
+
+    // Waits up to timeoutMillis for a frame to read. Returns true if there
+    // is one. A consumer that keeps up usually waits a bit for the next
+    // frame; only a timeout or a wait longer than the frame period is
+    // counted as an underrun: capture didn't deliver in time.
+    public boolean awaitFrame(long timeoutMillis) {
+        if (read != written) return true;
+        final long start = System.nanoTime();
+        final long deadline = start
+            + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean arrived = true;
+        consumer = Thread.currentThread();
+        try {
+            while (read == written) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    arrived = false;
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            consumer = null;
+        }
+        if (!arrived || (framePeriodNanos > 0
+                         && System.nanoTime() - start > framePeriodNanos)) {
+            ++underruns;
+        }
+        return arrived;
+    }
+
+    // The oldest unread frame, after awaitFrame() returned true. The view
+    // starts at the beginning of the frame; use absolute get(i).
+    // For SHORT_ARRAY and DIRECT_SHORT storage.
+    public ShortBuffer acquireReadShorts() { return shortViews[slot(read)]; }
+
+    // Same for DIRECT_FLOAT storage.
+    public FloatBuffer acquireReadFloats() { return floatViews[slot(read)]; }
+
+    // Number of valid samples in the frame being read.
+    public int getReadLength() { return lengths[slot(read)]; }
+
+    // System.nanoTime() when the frame being read was committed.
+    public long getReadTimestamp() { return timestamps[slot(read)]; }
+
+    // Index of the first sample of the frame being read, counted since
+    // capturing started.
+    public long getReadSampleIndex() { return sampleIndices[slot(read)]; }
+
+    // Done with the frame being read; the producer may reuse it.
+    public void releaseRead() {
+        read = read + 1;
+    }
+
+    // Times the producer found the ring full and had to drop a frame.
+    public long getOverruns() { return overruns; }
+
+    // Times the consumer waited longer than a frame period, or in vain.
+    public long getUnderruns() { return underruns; }
+
+    private boolean hasRoom() {
+        if (written - read >= lengths.length) {
+            ++overruns;
+            return false;
+        }
+        return true;
+    }
+
+    private int slot(long count) { return (int) (count % lengths.length); }
+
+    private final int frameSize;
+    private final Storage storage;
+    private long framePeriodNanos;
+    private final int lengths[];
+    private final long timestamps[];
+    private final long sampleIndices[];
+    private final short arrays[][];         // SHORT_ARRAY storage.
+    private final ByteBuffer buffers[];      // DIRECT_* storage.
+    private final ShortBuffer shortViews[];
+    private final FloatBuffer floatViews[];
+    private volatile long written;     // only written by the producer.
+    private long samplesWritten;       // producer only.
+    private volatile long read;        // only written by the consumer.
+    private volatile long overruns;    // only written by the producer.
+    private volatile long underruns;   // only written by the consumer.
+    private volatile Thread consumer;  // set while waiting in awaitFrame().
+}
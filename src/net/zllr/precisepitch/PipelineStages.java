@@ -0,0 +1,294 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import net.zllr.precisepitch.model.MeasuredPitch;
+
+// The stages PitchPipelines are assembled from, in the order they usually
+// come in.
+public final class PipelineStages {
+    private PipelineStages() {}
+
+    // Decides if a frame is voiced with a SilenceGate. Optionally goes into
+    // a low power idle mode after a while without voiced input: then only
+    // one short probe of every probeInterval frames is looked at, the other
+    // frames are dropped. As soon as a probe is voiced, we're back to full
+    // rate.
+    public static final class Gate implements PitchPipeline.Stage {
+        private static final int kProbeSamples = 256;
+
+        // gate: null lets everything through.
+        public Gate(SilenceGate gate) { this.gate = gate; }
+
+        public void setGate(SilenceGate gate) { this.gate = gate; }
+
+        // idleAfterFrames <= 0 disables idle mode.
+        public void setIdleMode(int idleAfterFrames, int probeInterval) {
+            this.idleAfterFrames = Math.max(0, idleAfterFrames);
+            this.probeInterval = Math.max(1, probeInterval);
+        }
+        public int getProbeInterval() { return probeInterval; }
+
+        // Number of times we went idle and woke up again.
+        public int getIdleWakeups() { return idleWakeups; }
+
+        @Override
+        public String getName() { return "gate"; }
+
+        @Override
+        public void process(PitchPipeline.Frame frame) {
+            final boolean voiced;
+            if (idle) {
+                if (++framesSinceProbe < probeInterval) {
+                    frame.dropped = true;
+                    return;
+                }
+                framesSinceProbe = 0;
+                if (!isOpen(frame, Math.min(frame.length, kProbeSamples))) {
+                    frame.dropped = true;
+                    return;
+                }
+                // The window still contains the silence before we went
+                // idle; no harm in having that at the start of the window.
+                voiced = true;
+                idle = false;
+                ++idleWakeups;
+            } else {
+                voiced = gate == null || isOpen(frame, frame.length);
+            }
+            silentFrames = voiced ? 0 : silentFrames + 1;
+            if (idleAfterFrames > 0 && gate != null
+                && silentFrames >= idleAfterFrames) {
+                idle = true;
+                framesSinceProbe = 0;
+            }
+            frame.voiced = voiced;
+        }
+
+        private boolean isOpen(PitchPipeline.Frame frame, int length) {
+            return frame.shorts != null
+                ? gate.isOpen(frame.shorts, 0, length)
+                : gate.isOpen(frame.floats, 0, length);
+        }
+
+        private SilenceGate gate;
+        private int idleAfterFrames;    // 0: never go idle.
+        private int probeInterval = 1;
+        private int silentFrames;
+        private boolean idle;
+        private int framesSinceProbe;
+        private volatile int idleWakeups;
+    }
+
+    // Low-pass filters and decimates the captured audio into frame.samples.
+    // Needs 16 bit PCM in array backed buffers.
+    public static final class Decimate implements PitchPipeline.Stage {
+        public Decimate(Decimator decimator, int maxFrameLength) {
+            this.decimator = decimator;
+            output = new double[decimator.maxOutput(maxFrameLength)];
+        }
+
+        @Override
+        public String getName() { return "decimate"; }
+
+        @Override
+        public void process(PitchPipeline.Frame frame) {
+            frame.sampleCount = decimator.process(frame.shorts.array(), 0,
+                                                  frame.length, output, 0);
+            frame.samples = output;
+        }
+
+        private final Decimator decimator;
+        private final double output[];
+    }
+
+    // Runs the pitch detector once a window is complete. With a window, the
+    // frames are collected in it and analyzed every hop; without, each
+    // frame is a complete window and goes to the detector directly.
+    // For silent frames, the detector is told to skip, so its confidence
+    // decays. If a frame happens to complete more than one hop, the frame
+    // carries the last estimate.
+    // Also finds out where on the sample clock the analyzed window was.
+    public static final class Detect implements PitchPipeline.Stage {
+        // window: null if frames are exactly the detector's window.
+        public Detect(PitchDetector detector, StreamingWindow window) {
+            this(detector, window, null);
+        }
+
+        // decimator: the one decimating the frames before the window,
+        // to map window positions back to captured samples; null if none.
+        public Detect(PitchDetector detector, StreamingWindow window,
+                      Decimator decimator) {
+            this.detector = detector;
+            this.window = window;
+            this.factor = decimator != null ? decimator.getFactor() : 1;
+            this.delay = decimator != null ? decimator.getDelay() : 0;
+        }
+
+        public PitchDetector getDetector() { return detector; }
+
+        @Override
+        public String getName() { return "detect"; }
+
+        @Override
+        public void process(PitchPipeline.Frame frame) {
+            if (window == null) {
+                frame.windowCenter = frame.sampleIndex + frame.length / 2;
+                estimate(frame);
+            } else if (frame.samples != null) {
+                int pos = 0;
+                while (pos < frame.sampleCount) {
+                    pos += window.addSamples(frame.samples, pos,
+                                             frame.sampleCount - pos);
+                    if (window.isHopComplete()) {
+                        setWindowCenter(frame, pos);
+                        estimate(frame);
+                    }
+                }
+            } else {
+                final ShortBuffer shorts = frame.shorts;
+                final FloatBuffer floats = frame.floats;
+                final int length = frame.length;
+                int pos = 0;
+                while (pos < length) {
+                    pos += shorts != null
+                        ? window.addSamples(shorts, pos, length - pos)
+                        : window.addSamples(floats, pos, length - pos);
+                    if (window.isHopComplete()) {
+                        setWindowCenter(frame, pos);
+                        estimate(frame);
+                    }
+                }
+            }
+        }
+
+        // The window ends with the sample at 'pos' in the frame's samples.
+        private void setWindowCenter(PitchPipeline.Frame frame, int pos) {
+            final long end = frame.sampleIndex + (long) pos * factor - delay;
+            frame.windowCenter = end - window.getSize() * factor / 2;
+        }
+
+        private void estimate(PitchPipeline.Frame frame) {
+            if (!frame.voiced) {
+                detector.skipPitch();  // let confidence decay.
+                frame.pitch = 0;
+            } else {
+                final long start = System.nanoTime();
+                if (window != null) {
+                    frame.pitch = detector.computePitch(window.getSamples(),
+                                                        window.getOffset());
+                } else if (frame.shorts != null) {
+                    frame.pitch = detector.computePitch(frame.shorts);
+                } else {
+                    frame.pitch = detector.computePitch(frame.floats);
+                }
+                frame.computeNanos = Math.max(1, System.nanoTime() - start);
+            }
+            frame.level = detector.getLastPeak();
+            frame.confidence = detector.getConfidence();
+            frame.hasEstimate = true;
+        }
+
+        private final PitchDetector detector;
+        private final StreamingWindow window;
+        private final int factor;   // captured samples per window sample.
+        private final int delay;    // of the decimation filter.
+    }
+
+    // Turns the estimate into a note and cent (frame.reading), with the
+    // time on the sample clock it was played.
+    public static final class Quantize implements PitchPipeline.Stage {
+        @Override
+        public String getName() { return "quantize"; }
+
+        @Override
+        public void process(PitchPipeline.Frame frame) {
+            if (!frame.hasEstimate) return;
+            final MeasuredPitch reading = frame.reading;
+            if (frame.voiced) {
+                reading.set(frame.pitch, frame.level);
+            } else {
+                reading.setSilence();
+            }
+            reading.confidence = frame.confidence;
+            reading.timestampNanos = System.nanoTime();
+            reading.sampleIndex = frame.windowCenter;
+            reading.sampleRate = frame.sampleRate;
+            // The frame's last sample arrived at captureNanos; count back.
+            reading.captureNanos = frame.captureNanos;
+            if (frame.sampleRate > 0) {
+                final long behind = frame.sampleIndex + frame.length
+                    - frame.windowCenter;
+                reading.captureNanos -= behind * 1000000000L / frame.sampleRate;
+            }
+            frame.hasReading = true;
+        }
+    }
+
+    // In strobe mode, the detector only determines the note; the frequency
+    // comes from a StrobeTuner comparing the signal with that note, precise
+    // to a fraction of a cent once it had about half a second of the note.
+    // Does nothing while no tuner is set; can be switched any time.
+    public static final class Strobe implements PitchPipeline.Stage {
+        public void setTuner(StrobeTuner tuner) { this.tuner = tuner; }
+        public StrobeTuner getTuner() { return tuner; }
+
+        @Override
+        public String getName() { return "strobe"; }
+
+        @Override
+        public void process(PitchPipeline.Frame frame) {
+            final StrobeTuner strobeTuner = tuner;
+            if (strobeTuner == null) return;
+            if (!frame.voiced) {
+                strobeTuner.reset();
+            } else if (frame.shorts != null) {
+                strobeTuner.addSamples(frame.shorts, 0, frame.length);
+            } else {
+                strobeTuner.addSamples(frame.floats, 0, frame.length);
+            }
+            final MeasuredPitch reading = frame.reading;
+            if (!frame.hasReading || reading.isSilence()) return;
+            // Nearest note; 0 is the low A at 55Hz.
+            strobeTuner.setReference(55.0 * Math.pow(2, reading.note / 12.0));
+            if (strobeTuner.isLocked()) {
+                reading.set(strobeTuner.getFrequency(), frame.level);
+            }
+        }
+
+        private volatile StrobeTuner tuner;
+    }
+
+    // Hands the reading to everyone subscribed to the bus.
+    public static final class Publish implements PitchPipeline.Stage {
+        public Publish(PitchBus bus) { this.bus = bus; }
+
+        @Override
+        public String getName() { return "publish"; }
+
+        @Override
+        public void process(PitchPipeline.Frame frame) {
+            if (!frame.hasReading || !bus.hasSubscribers()) return;
+            bus.acquire().copyFrom(frame.reading);
+            bus.publish();
+        }
+
+        private final PitchBus bus;
+    }
+}
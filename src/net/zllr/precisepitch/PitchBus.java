@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import net.zllr.precisepitch.model.MeasuredPitch;
+
+// Fans the readings of one pitch source out to any number of subscribers,
+// so that several consumers share one capture and analysis pipeline.
+// Each subscriber picks its own delivery:
+//   - PitchEventRing.subscribe(bus, handler): every reading, on the
+//     handler's thread.
+//   - subscribe(new LatestPitchSlot()): coalesced; polled at the
+//     subscriber's own rate, e.g. by a PitchFrameReceiver per frame.
+//   - any other PitchSink: called right on the analysis thread.
+// The producer fills a single record; subscribers get it in place and take
+// their own copy of the few primitive fields if they keep it. Nothing is
+// allocated per reading.
+public final class PitchBus {
+    private static final PitchSink kNoSinks[] = new PitchSink[0];
+
+    // -- Subscriber side. Can be called from any thread, any time.
+
+    public void subscribe(PitchSink sink) {
+        synchronized (this) {
+            final PitchSink updated[] = new PitchSink[sinks.length + 1];
+            System.arraycopy(sinks, 0, updated, 0, sinks.length);
+            updated[sinks.length] = sink;
+            sinks = updated;
+        }
+    }
+
+    public void unsubscribe(PitchSink sink) {
+        synchronized (this) {
+            int found = -1;
+            for (int i = 0; i < sinks.length; ++i) {
+                if (sinks[i] == sink) found = i;
+            }
+            if (found < 0) return;
+            final PitchSink updated[] = new PitchSink[sinks.length - 1];
+            System.arraycopy(sinks, 0, updated, 0, found);
+            System.arraycopy(sinks, found + 1, updated, found,
+                             updated.length - found);
+            sinks = updated;
+        }
+    }
+
+    public boolean hasSubscribers() { return sinks.length > 0; }
+
+    // -- Producer side; a single thread.
+
+    // The record to fill with the next reading.
+    public MeasuredPitch acquire() { return reading; }
+
+    // Hand the record from acquire() to all subscribers.
+    public void publish() {
+        final PitchSink current[] = sinks;
+        for (int i = 0; i < current.length; ++i) {
+            current[i].offer(reading);
+        }
+    }
+
+    private final MeasuredPitch reading = new MeasuredPitch();
+    private volatile PitchSink sinks[] = kNoSinks;   // copy on write.
+}
@@ -0,0 +1,138 @@
+/* PitchContinuityFilter
+
+   Dynamic pitch tracking, extracted from the
+   Dynamic Wavelet Algorithm Pitch Tracking library
+   Released under the MIT open source licence
+ 
+   Copyright (c) 2010 Antoine Schmitt
+   Translated to Java by Henner Zeller
+
+   Based on
+   "Real-Time Time-Domain Pitch Tracking Using Wavelets"
+   http://courses.physics.illinois.edu/phys406/NSF_REU_Reports/2005_reu/Real-Time_Time-Domain_Pitch_Tracking_Using_Wavelets.pdf
+
+   Permission is hereby granted, free of charge, to any person obtaining a copy
+   of this software and associated documentation files (the "Software"), to deal
+   in the Software without restriction, including without limitation the rights
+   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+   copies of the Software, and to permit persons to whom the Software is
+   furnished to do so, subject to the following conditions:
+ 
+   The above copyright notice and this permission notice shall be included in
+   all copies or substantial portions of the Software.
+ 
+   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+   THE SOFTWARE.
+*/
+package net.zllr.precisepitch;
+
+// Filters a sequence of raw pitch estimates from a pitch detector
+// (0.0 meaning: no pitch) into a plausible continuous pitch line.
+// Used by all PitchDetectors; originally part of DyWaPitchTrack.
+public final class PitchContinuityFilter {
+    public PitchContinuityFilter() {
+        pitchConfidence = -1;
+        prevPitch = -1.0;
+    }
+
+    // Current confidence in the tracked pitch, 0..5
+    public int getConfidence() { return Math.max(0, pitchConfidence); }
+
+    // It states: 
+    // - a pitch cannot change much all of a sudden (20%) (impossible humanly,
+    //   so if such a situation happens, consider that it is a mistake and
+    //   drop it. 
+    //   (for music, it is quite common to have higher steps. allow for more)
+    // - a pitch cannot double or be divided by 2 all of a sudden : it is an
+    //   algorithm side-effect : divide it or double it by 2. 
+    // - a lonely voiced pitch cannot happen, nor can a sudden drop in the middle
+    //   of a voiced segment. Smooth the plot. 
+    public double track(double pitch) {
+        // equivalence
+        if (pitch == 0.0) pitch = -1.0;
+
+        //
+        double estimatedPitch = -1;
+        double acceptedError = 0.4f;   // used to be 0.2
+        int maxConfidence = 5;
+
+        if (pitch != -1) {
+            // I have a pitch here
+
+            if (prevPitch == -1) {
+                // no previous
+                estimatedPitch = pitch;
+                prevPitch = pitch;
+                pitchConfidence = 1;
+
+            } else if (Math.abs(prevPitch - pitch) / pitch < acceptedError) {
+                // similar : remember and increment pitch
+                prevPitch = pitch;
+                estimatedPitch = pitch;
+                // maximum 3:
+                pitchConfidence = Math.min(maxConfidence, pitchConfidence + 1);
+
+            } else if ((pitchConfidence >= maxConfidence-2)
+                    && (Math.abs(prevPitch - 2.*pitch)/(2.*pitch)
+                    < acceptedError)) {
+                // close to half the last pitch, which is trusted
+                estimatedPitch = 2.*pitch;
+                prevPitch = estimatedPitch;
+
+            } else if ((pitchConfidence >= maxConfidence-2)
+                    && Math.abs(prevPitch - 0.5*pitch)/(0.5*pitch) < acceptedError) {
+                // close to twice the last pitch, which is trusted
+                estimatedPitch = 0.5*pitch;
+                prevPitch = estimatedPitch;
+            } else {
+                // nothing like this : very different value
+                if (pitchConfidence >= 1) {
+                    // previous trusted : keep previous
+                    estimatedPitch = prevPitch;
+                    pitchConfidence = Math.max(0, pitchConfidence - 1);
+                } else {
+                    // previous not trusted : take current
+                    estimatedPitch = pitch;
+                    prevPitch = pitch;
+                    pitchConfidence = 1;
+                }
+            }
+
+        } else {
+            // no pitch now
+            if (prevPitch != -1) {
+                // was pitch before
+                if (pitchConfidence >= 1) {
+                    // continue previous
+                    estimatedPitch = prevPitch;
+                    pitchConfidence = Math.max(0, pitchConfidence - 1);
+                } else {
+                    prevPitch = -1;
+                    estimatedPitch = -1.;
+                    pitchConfidence = 0;
+                }
+            }
+        }
+
+        // put "_pitchConfidence="&pitchConfidence
+        if (pitchConfidence >= 1) {
+            // ok
+            pitch = estimatedPitch;
+        } else {
+            pitch = -1;
+        }
+
+        // equivalence
+        if (pitch == -1) pitch = 0.0;
+
+        return pitch;
+    }
+
+    private double prevPitch;
+    private int pitchConfidence;
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+// A PitchDetector determines the pitch in windows of a fixed number of
+// samples. It is stateful: consecutive calls are expected to be consecutive
+// (possibly overlapping) windows of the same signal, which helps filtering
+// glitches.
+// Implementations don't allocate memory while computing a pitch.
+public interface PitchDetector {
+    // The available detectors.
+    enum Engine {
+        // Dynamic wavelet algorithm; robust, needs about 3 periods of the
+        // lowest frequency.
+        WAVELET {
+            public PitchDetector create(int sampleRate, InstrumentRange range) {
+                final DyWaPitchTrack tracker = new DyWaPitchTrack(
+                    sampleRate,
+                    DyWaPitchTrack.suggestedSamplecount(sampleRate,
+                                                        range.getMinFrequency()),
+                    range.getWaveletMaxFrequency(),
+                    range.getWaveletLevels(sampleRate));
+                tracker.setInterpolateExtrema(true);
+                return tracker;
+            }
+        },
+
+        // YIN difference function; locks on low notes with about 2 periods.
+        YIN {
+            public PitchDetector create(int sampleRate, InstrumentRange range) {
+                return new YinPitchDetector(
+                    sampleRate,
+                    YinPitchDetector.suggestedSamplecount(sampleRate,
+                                                          range.getMinFrequency()));
+            }
+        },
+
+        // Autocorrelation via FFT; cost grows only with n log n, so it is
+        // the choice for very low minimum frequencies and large windows.
+        FFT {
+            public PitchDetector create(int sampleRate, InstrumentRange range) {
+                return new FftPitchDetector(
+                    sampleRate,
+                    FftPitchDetector.suggestedSamplecount(sampleRate,
+                                                          range.getMinFrequency()));
+            }
+        },
+
+        // Wavelet trackers on a short window for the upper half of the
+        // range (on a log scale, but not below 200Hz) and a long one for the
+        // full range, on separate threads. High notes are reported sooner.
+        // Call shutdown() when done.
+        MULTI_RESOLUTION {
+            public PitchDetector create(int sampleRate, InstrumentRange range) {
+                final int split = (int) Math.max(
+                    200, Math.sqrt((double) range.getMinFrequency()
+                                   * range.getMaxFrequency()));
+                if (split >= range.getMaxFrequency()) {
+                    return new MultiResolutionPitchDetector(sampleRate, range);
+                }
+                return new MultiResolutionPitchDetector(
+                    sampleRate, range, range.above(split));
+            }
+        },
+
+        // Goertzel filters at the open strings of the range, for tuning
+        // them. Only reports pitches near one of the strings.
+        STRINGS {
+            public PitchDetector create(int sampleRate, InstrumentRange range) {
+                final double strings[] = range.getOpenStrings();
+                if (strings.length == 0) {
+                    throw new IllegalArgumentException(
+                        "No open strings in " + range);
+                }
+                return new GoertzelStringDetector(
+                    sampleRate,
+                    GoertzelStringDetector.suggestedSamplecount(sampleRate,
+                                                                strings),
+                    strings);
+            }
+        };
+
+        // Create a detector for the given sample rate, set up for the
+        // given range.
+        public abstract PitchDetector create(int sampleRate,
+                                             InstrumentRange range);
+
+        // Create a detector with a window large enough to detect
+        // minFrequency.
+        public PitchDetector create(int sampleRate, int minFrequency) {
+            return create(sampleRate,
+                          InstrumentRange.fromMinFrequency(minFrequency));
+        }
+    }
+
+    // Sample rate in Hz the detector expects its input in.
+    int getSampleRate();
+
+    // Number of samples in each window.
+    int getSampleCount();
+
+    // Compute pitch of the getSampleCount() samples starting at
+    // samples[offset]. Returns the frequency in Hz or 0.0 if there is no
+    // pitch. The samples are not modified.
+    double computePitch(double samples[], int offset);
+
+    // Same, on a window of 16 bit PCM samples.
+    double computePitch(short samples[]);
+
+    // Same, on the first getSampleCount() samples of a buffer, typically a
+    // view of a direct ByteBuffer the audio was captured into. Uses
+    // absolute get(i); the position is ignored. 16 bit PCM.
+    double computePitch(ShortBuffer samples);
+
+    // Float samples in range -1..1
+    double computePitch(FloatBuffer samples);
+
+    // Let the detector know that the current window has no pitch, e.g.
+    // because it is silent, without analyzing it. Returns the tracked pitch,
+    // which can still be the previous one while its confidence decays.
+    double skipPitch();
+
+    // Peak level (0..1) of the window analyzed in the last computePitch().
+    double getLastPeak();
+
+    // Confidence in the current pitch. 0 (none) .. 5
+    int getConfidence();
+}
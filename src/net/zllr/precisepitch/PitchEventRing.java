@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import android.os.Handler;
+import net.zllr.precisepitch.model.MeasuredPitch;
+
+// Delivers pitch measurements from the analysis thread to a Handler without
+// allocating: a ring of preallocated MeasuredPitch records, filled in place
+// by the single producer and read in place by the single consumer.
+// The handler gets a message (with this ring as obj) when there are new
+// records; no further message is sent until it has drained the ring.
+// Messages come from the Message pool, so that doesn't allocate either.
+//
+//   producer:                          consumer, in handleMessage():
+//     MeasuredPitch p = ring.acquire();  PitchEventRing ring = msg.obj;
+//     if (p != null) {                   MeasuredPitch p;
+//         p.set(frequency, level);       while ((p = ring.poll()) != null)
+//         ring.commit();                     use(p);
+//     }
+//
+// A record stays valid until the next poll(); copy it to keep it longer.
+//
+// As a PitchSink, it takes a copy of each reading on a PitchBus, to be
+// handled on the thread of its handler.
+public final class PitchEventRing implements PitchSink {
+    public static final int kDefaultCapacity = 32;
+
+    // Every reading on the bus to the handler, which gets the returned ring
+    // as msg.obj to drain.
+    public static PitchEventRing subscribe(PitchBus bus, Handler handler) {
+        final PitchEventRing events = new PitchEventRing(kDefaultCapacity);
+        events.setHandler(handler);
+        bus.subscribe(events);
+        return events;
+    }
+
+    public PitchEventRing(int capacity) {
+        records = new MeasuredPitch[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            records[i] = new MeasuredPitch();
+        }
+    }
+
+    // Handler to notify; null to stop notifying.
+    public void setHandler(Handler handler) { this.handler = handler; }
+    public Handler getHandler() { return handler; }
+
+    // Stop receiving readings from the bus; no more messages are sent.
+    public void unsubscribe(PitchBus bus) {
+        bus.unsubscribe(this);
+        setHandler(null);
+    }
+
+    // -- Producer side
+
+    // Returns the next record to fill, or null if the consumer has fallen a
+    // whole ring behind; that measurement is dropped and counted.
+    public MeasuredPitch acquire() {
+        if (written - read >= records.length) {
+            ++dropped;
+            return null;
+        }
+        return records[slot(written)];
+    }
+
+    // Publish the record from acquire() and notify the handler, unless it
+    // still has a notification to handle.
+    public void commit() {
+        written = written + 1;  // volatile write publishes the record.
+        if (!notifyPending) {
+            final Handler h = handler;
+            if (h != null) {
+                notifyPending = true;
+                h.sendMessage(h.obtainMessage(0, this));
+            }
+        }
+    }
+
+    @Override
+    public void offer(MeasuredPitch reading) {
+        final MeasuredPitch record = acquire();
+        if (record == null) return;
+        record.copyFrom(reading);
+        commit();
+    }
+
+    // -- Consumer side
+
+    // Returns the oldest unread record and hands back the previous one;
+    // null if there is nothing more to read.
+    public MeasuredPitch poll() {
+        if (holding) {
+            read = read + 1;
+            holding = false;
+        }
+        if (read == written) {
+            // Re-arm the notification before checking again; a record
+            // committed in between is either seen here or notified.
+            notifyPending = false;
+            if (read == written) return null;
+        }
+        holding = true;
+        return records[slot(read)];
+    }
+
+    // Measurements dropped because the consumer didn't keep up.
+    public long getDropped() { return dropped; }
+
+    private int slot(long count) { return (int) (count % records.length); }
+
+    private final MeasuredPitch records[];
+    private volatile Handler handler;
+    private volatile long written;          // only written by the producer.
+    private volatile long read;             // only written by the consumer.
+    private volatile boolean notifyPending;
+    private volatile long dropped;          // only written by the producer.
+    private boolean holding;                // consumer has a record out.
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import android.os.Build;
+import android.os.Handler;
+import net.zllr.precisepitch.model.MeasuredPitch;
+
+// Pulls the latest reading from a LatestPitchSlot once per display frame on
+// the UI thread, so the display always shows the freshest pitch and the
+// message queue never fills up with stale readings.
+// Frames are timed with the Choreographer where available (Android 4.1+);
+// older devices fall back to a timer at about 60Hz.
+public abstract class PitchFrameReceiver {
+    private static final int kChoreographerSdk = 16;
+    private static final long kFallbackFrameMillis = 16;
+
+    public PitchFrameReceiver(LatestPitchSlot slot) {
+        this.slot = slot;
+    }
+
+    public LatestPitchSlot getSlot() { return slot; }
+
+    // Metrics to record the end to end latency of the readings shown in;
+    // null for none.
+    public void setMetrics(PitchMetrics metrics) { this.metrics = metrics; }
+
+    // Start receiving. Call on the UI thread.
+    public void start() {
+        if (running) return;
+        running = true;
+        if (Build.VERSION.SDK_INT >= kChoreographerSdk) {
+            if (frames == null) frames = new ChoreographerFrames(this);
+            frames.post();
+        } else {
+            if (handler == null) handler = new Handler();
+            handler.post(fallbackTick);
+        }
+    }
+
+    public void stop() {
+        running = false;
+        if (frames != null) frames.remove();
+        if (handler != null) handler.removeCallbacks(fallbackTick);
+    }
+
+    // Called on the UI thread with a reading that is newer than the last
+    // one; at most once per frame. null for silence.
+    protected abstract void onPitch(MeasuredPitch pitch);
+
+    // Called by the frame source.
+    void onFrame() {
+        if (!running) return;
+        final MeasuredPitch pitch = slot.take();
+        if (pitch != null) {
+            onPitch(pitch.isSilence() ? null : pitch);
+            if (metrics != null) metrics.recordDisplay(pitch);
+        }
+        if (!running) return;  // onPitch() might have stopped us.
+        if (frames != null) {
+            frames.post();
+        } else {
+            handler.postDelayed(fallbackTick, kFallbackFrameMillis);
+        }
+    }
+
+    private final Runnable fallbackTick = new Runnable() {
+            public void run() { onFrame(); }
+        };
+
+    private final LatestPitchSlot slot;
+    private PitchMetrics metrics;
+    private boolean running;
+    private ChoreographerFrames frames;   // only set on Android 4.1+
+    private Handler handler;              // fallback otherwise.
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.zllr.precisepitch.model.MeasuredPitch;
+
+// How the pitch pipeline performs on this device: time per pitch
+// computation, time from capture until the reading is delivered and until
+// it is shown, and how many frames the gate let through. Fed by the
+// PitchPipeline after each frame, on the analysis thread, without locks or
+// allocation.
+// The counters kept elsewhere (ring overruns, readings the consumers
+// dropped) are added to the snapshot by the pitch source, see
+// MicrophonePitchSource.getMetrics().
+public final class PitchMetrics {
+    // Time spent in the pitch detector, per computed window, microseconds.
+    public final LatencyHistogram computeMicros = new LatencyHistogram();
+
+    // From the end of capturing a frame until its reading was handed to
+    // the subscribers, microseconds.
+    public final LatencyHistogram deliveryMicros = new LatencyHistogram();
+
+    // From capturing the sound until its reading was shown, measured with
+    // the reading's captureNanos, microseconds. Fed by the display, see
+    // recordDisplay().
+    public final LatencyHistogram displayMicros = new LatencyHistogram();
+
+    // Called by the pipeline after each frame.
+    public void recordFrame(PitchPipeline.Frame frame) {
+        frames.incrementAndGet();
+        if (frame.dropped) {
+            idleFrames.incrementAndGet();
+            return;
+        }
+        if (frame.voiced) voicedFrames.incrementAndGet();
+        if (frame.computeNanos > 0) {
+            computeMicros.record(frame.computeNanos / 1000);
+        }
+        if (frame.hasReading) {
+            readings.incrementAndGet();
+            deliveryMicros.record((System.nanoTime() - frame.captureNanos)
+                                  / 1000);
+        }
+    }
+
+    // Called by whoever displays a reading, when it does.
+    public void recordDisplay(MeasuredPitch reading) {
+        if (reading.captureNanos == 0) return;  // not from a pipeline.
+        displayMicros.record((System.nanoTime() - reading.captureNanos) / 1000);
+    }
+
+    public void reset() {
+        computeMicros.reset();
+        deliveryMicros.reset();
+        displayMicros.reset();
+        frames.set(0);
+        voicedFrames.set(0);
+        idleFrames.set(0);
+        readings.set(0);
+    }
+
+    // All values at one point in time; preallocate and fill with
+    // snapshot() as often as needed.
+    public static final class Snapshot {
+        public long frames;          // captured frames.
+        public long voicedFrames;    // of these, considered voiced.
+        public long idleFrames;      // dropped unseen in idle mode.
+        public long readings;        // readings handed to subscribers.
+
+        public long computeCount;
+        public double computeMeanMicros;
+        public long computeP50Micros;
+        public long computeP99Micros;
+        public long computeMaxMicros;
+
+        public long deliveryP50Micros;
+        public long deliveryP99Micros;
+        public long deliveryMaxMicros;
+
+        // End to end, from the played sound to the display.
+        public long displayP50Micros;
+        public long displayP99Micros;
+        public long displayMaxMicros;
+
+        // Filled in by the pitch source.
+        public long overruns;        // frames lost; analysis too slow.
+        public long underruns;       // capture late for the analysis.
+        public long droppedEvents;   // handler didn't keep up.
+        public long missedReadings;  // overwritten before display.
+        public long displayedReadings;
+
+        // Fraction of the frames the gate let through, 0..1
+        public double getGateDutyCycle() {
+            return frames > 0 ? (double) voicedFrames / frames : 0;
+        }
+    }
+
+    public void snapshot(Snapshot out) {
+        out.frames = frames.get();
+        out.voicedFrames = voicedFrames.get();
+        out.idleFrames = idleFrames.get();
+        out.readings = readings.get();
+        out.computeCount = computeMicros.getCount();
+        out.computeMeanMicros = computeMicros.getMean();
+        out.computeP50Micros = computeMicros.getValueAtPercentile(50);
+        out.computeP99Micros = computeMicros.getValueAtPercentile(99);
+        out.computeMaxMicros = computeMicros.getMax();
+        out.deliveryP50Micros = deliveryMicros.getValueAtPercentile(50);
+        out.deliveryP99Micros = deliveryMicros.getValueAtPercentile(99);
+        out.deliveryMaxMicros = deliveryMicros.getMax();
+        out.displayP50Micros = displayMicros.getValueAtPercentile(50);
+        out.displayP99Micros = displayMicros.getValueAtPercentile(99);
+        out.displayMaxMicros = displayMicros.getMax();
+    }
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong voicedFrames = new AtomicLong();
+    private final AtomicLong idleFrames = new AtomicLong();
+    private final AtomicLong readings = new AtomicLong();
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import net.zllr.precisepitch.model.MeasuredPitch;
+
+// The analysis of captured audio as a chain of stages, each working in
+// place on a reusable Frame: typically
+//   gate -> decimate -> detect -> quantize -> strobe -> publish
+// (see PipelineStages). Which stages there are is up to whoever assembles
+// the pipeline, so expensive ones can be left out where they're not
+// needed. The pipeline measures the time spent in each stage, and traces
+// each one as a PitchTrace section "pitch.<stage name>".
+//
+// Nothing in here depends on the microphone: process(short[], ...) runs
+// the same pipeline on recorded audio, e.g. to test detectors offline.
+public final class PitchPipeline {
+    private static final String kTraceSection = "PitchPipeline.process";
+
+    // A step in the pipeline. Called on the analysis thread, once per frame;
+    // must not allocate.
+    public interface Stage {
+        String getName();
+        void process(Frame frame);
+    }
+
+    // One hop worth of captured audio and everything the stages found out
+    // about it. Reused for every frame.
+    public static final class Frame {
+        // The captured audio; one of these is set, the other one is null.
+        // Read with absolute get(i), i in 0..length-1.
+        public ShortBuffer shorts;
+        public FloatBuffer floats;
+        public int length;
+
+        // System.nanoTime() when capturing the frame was complete.
+        public long captureNanos;
+
+        // The sample clock: index of the first sample of this frame since
+        // capturing started, and the capture sample rate.
+        public long sampleIndex;
+        public int sampleRate;
+
+        // Set by a stage to skip the rest of the pipeline for this frame.
+        public boolean dropped;
+
+        // Is there something worth analyzing ? Silent frames still run
+        // through the pipeline, so that windows stay current.
+        public boolean voiced;
+
+        // Samples in range -1..1 after a decimation or conversion stage;
+        // null if the stages work on the captured audio directly.
+        public double samples[];
+        public int sampleCount;
+
+        // Result of the detector, if a window was complete in this frame.
+        public boolean hasEstimate;
+        public double pitch;        // Hz; 0 if none.
+        public double level;        // peak level 0..1
+        public int confidence;
+        public long computeNanos;   // time the detector took; 0 if skipped.
+        public long windowCenter;   // sample index of the analyzed window's
+                                    // center, in captured samples.
+
+        // The estimate as a note, once quantized; a silence record if there
+        // was no pitch.
+        public boolean hasReading;
+        public final MeasuredPitch reading = new MeasuredPitch();
+
+        void begin() {
+            dropped = false;
+            voiced = true;
+            samples = null;
+            sampleCount = 0;
+            hasEstimate = false;
+            pitch = 0;
+            level = 0;
+            confidence = 0;
+            computeNanos = 0;
+            windowCenter = 0;
+            hasReading = false;
+        }
+    }
+
+    public PitchPipeline() {}
+
+    // Append a stage. Assemble before the pipeline is used.
+    public void add(Stage stage) {
+        final Stage grown[] = new Stage[stages.length + 1];
+        System.arraycopy(stages, 0, grown, 0, stages.length);
+        grown[stages.length] = stage;
+        stages = grown;
+        final Timing grownTiming[] = new Timing[timings.length + 1];
+        System.arraycopy(timings, 0, grownTiming, 0, timings.length);
+        grownTiming[timings.length] = new Timing(stage.getName());
+        timings = grownTiming;
+        final String grownTraceNames[] = new String[traceNames.length + 1];
+        System.arraycopy(traceNames, 0, grownTraceNames, 0, traceNames.length);
+        grownTraceNames[traceNames.length] = "pitch." + stage.getName();
+        traceNames = grownTraceNames;
+    }
+
+    // Metrics to feed after each frame; null for none.
+    public void setMetrics(PitchMetrics metrics) { this.metrics = metrics; }
+    public PitchMetrics getMetrics() { return metrics; }
+
+    public int getStageCount() { return stages.length; }
+    public Stage getStage(int i) { return stages[i]; }
+    public Timing getTiming(int i) { return timings[i]; }
+
+    // Run the frame through all stages, until one drops it.
+    public void process(Frame frame) {
+        final PitchTrace.Tracer frameTrace = PitchTrace.begin(kTraceSection);
+        frame.begin();
+        for (int i = 0; i < stages.length && !frame.dropped; ++i) {
+            final PitchTrace.Tracer trace = PitchTrace.begin(traceNames[i]);
+            final long start = System.nanoTime();
+            stages[i].process(frame);
+            timings[i].add(System.nanoTime() - start);
+            PitchTrace.end(trace);
+        }
+        PitchTrace.end(frameTrace);
+        final PitchMetrics m = metrics;
+        if (m != null) m.recordFrame(frame);
+    }
+
+    // Headless: run recorded 16 bit PCM through the pipeline, in frames of
+    // hopSize samples like the microphone would deliver them. The last
+    // incomplete frame is left out. Sample index 0 is pcm[offset].
+    public void process(short pcm[], int offset, int length, int hopSize,
+                        int sampleRate) {
+        if (headlessChunk == null || headlessChunk.length != hopSize) {
+            headlessChunk = new short[hopSize];
+            headlessView = ShortBuffer.wrap(headlessChunk);
+        }
+        for (int pos = offset; pos + hopSize <= offset + length;
+             pos += hopSize) {
+            System.arraycopy(pcm, pos, headlessChunk, 0, hopSize);
+            headlessFrame.shorts = headlessView;
+            headlessFrame.floats = null;
+            headlessFrame.length = hopSize;
+            headlessFrame.captureNanos = System.nanoTime();
+            headlessFrame.sampleIndex = pos - offset;
+            headlessFrame.sampleRate = sampleRate;
+            process(headlessFrame);
+        }
+    }
+
+    // Time spent in a stage.
+    public static final class Timing {
+        Timing(String name) { this.name = name; }
+
+        public String getName() { return name; }
+        public long getCalls() { return calls; }
+        public double getAverageMicros() {
+            final long n = calls;
+            return n > 0 ? totalNanos / 1000.0 / n : 0;
+        }
+        public double getMaxMicros() { return maxNanos / 1000.0; }
+
+        public void reset() {
+            calls = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+        }
+
+        void add(long nanos) {
+            totalNanos = totalNanos + nanos;
+            if (nanos > maxNanos) maxNanos = nanos;
+            calls = calls + 1;
+        }
+
+        private final String name;
+        // Only written by the analysis thread; readers might see an update
+        // half done, which is good enough for statistics.
+        private volatile long calls;
+        private volatile long totalNanos;
+        private volatile long maxNanos;
+    }
+
+    private Stage stages[] = new Stage[0];
+    private Timing timings[] = new Timing[0];
+    private String traceNames[] = new String[0];
+    private volatile PitchMetrics metrics;
+    private final Frame headlessFrame = new Frame();
+    private short headlessChunk[];
+    private ShortBuffer headlessView;
+}
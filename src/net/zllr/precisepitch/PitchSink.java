@@ -0,0 +1,26 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import net.zllr.precisepitch.model.MeasuredPitch;
+
+// Subscriber of a PitchBus.
+public interface PitchSink {
+    // Called on the analysis thread for every reading; must be quick and
+    // must not block. The reading is only valid during the call; keep a
+    // copy if needed.
+    void offer(MeasuredPitch reading);
+}
@@ -22,9 +22,20 @@ import android.os.Handler;
 // sends it to the message handler queue to process.
 public interface PitchSource {
     // Set handler for messages generated from this PitchSource.
-    // This sends 'MeasuredPitch' messages.
+    // The messages carry a PitchEventRing to drain with poll(); the
+    // MeasuredPitch records in it are reused, and a record with
+    // isSilence() means that there was no pitch.
     void setHandler(Handler handler);
 
+    // Coalescing delivery instead: each reading replaces the previous one in
+    // the slot, to be picked up e.g. by a PitchFrameReceiver once per
+    // display frame. Replaces a slot set before.
+    void setLatestPitchSlot(LatestPitchSlot slot);
+
+    // The handler and slot above are subscriptions on this bus; any number
+    // of other consumers can subscribe to share the same analysis.
+    PitchBus getPitchBus();
+
     // Start the thread doing the sampling.
     void startSampling();
 
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+// Named trace sections around capture, analysis and drawing, to find out
+// who is responsible when something janks. Off by default; then a section
+// costs a volatile read. Switch on any time with setTracer():
+//   - a SystemTracer: sections show up in systrace/Perfetto captures of
+//     the app, together with what the framework traces (Android 4.3+;
+//     the caller checks the version, see TunerActivity).
+//   - a ChromeTraceWriter: a JSON file to open in chrome://tracing or
+//     Perfetto; also works in a plain JVM, e.g. with the headless pipeline.
+// Plain Java, so that the traced analysis code runs outside Android.
+//
+//   final PitchTrace.Tracer trace = PitchTrace.begin("StaffView.onDraw");
+//   ... work ...
+//   PitchTrace.end(trace);
+//
+// Sections nest and have to be ended on the thread they were begun on.
+// end() goes to the tracer that began the section, so switching tracers
+// in between doesn't leave half a section anywhere.
+public final class PitchTrace {
+    private PitchTrace() {}
+
+    public interface Tracer {
+        void begin(String name);
+        void end();
+    }
+
+    // null switches tracing off.
+    public static void setTracer(Tracer tracer) { current = tracer; }
+    public static Tracer getTracer() { return current; }
+    public static boolean isEnabled() { return current != null; }
+
+    // Begin a section; returns what to pass to end(), null if off.
+    public static Tracer begin(String name) {
+        final Tracer tracer = current;
+        if (tracer != null) tracer.begin(name);
+        return tracer;
+    }
+
+    public static void end(Tracer tracer) {
+        if (tracer != null) tracer.end();
+    }
+
+    private static volatile Tracer current;
+}
@@ -36,6 +36,9 @@ import java.util.Deque;
 public class PracticeActivity extends Activity {
     private static final String BUNDLE_KEY_MODEL = "PracticeActivity.model";
     private static final int kCentThreshold = 20;
+    // Time in tune on the first note before we consider the game started;
+    // what used to be 5 readings.
+    private static final double kPracticeStartSeconds = 0.55;
     private static final int kHighlightColors[] = {
             Color.argb(70, 0xff, 0, 0),     // red
             Color.argb(70, 0xff, 0x80, 0),  // orange
@@ -157,7 +160,7 @@ public class PracticeActivity extends Activity {
     // Callbacks from the NoteFollowRecorder. We use this to record statistics.
     private class FollowEventListener implements NoteFollowRecorder.EventListener {
         public void onStartModel(NoteDocument model) {
-            startPracticeTime = -1;
+            practiceStarted = false;
             positionalResult = new float [model.size()];
             instructions.setText("Game starts with first note.");
         }
@@ -182,7 +185,7 @@ public class PracticeActivity extends Activity {
                 combined.addAnnotator(new HighlightAnnotator(kHighlightColors[hidx]));
                 model.get(worst).annotator = combined;
             }
-            final double centOff = sumAbsoluteOffset / absoluteOffsetCount;
+            final double centOff = sumAbsoluteOffset / absoluteOffsetSeconds;
             String result = String.format("Average %.1f¢ off", centOff);
             if (practiceResult.size() > 0) {
                 result += " (last: ";
@@ -201,7 +204,7 @@ public class PracticeActivity extends Activity {
 
         public void onStartNote(int modelPos, DisplayNote note) {
             currentHistogram = new Histogram(100);
-            currentNoteOffsetCount = 0;
+            currentNoteSeconds = 0;
             sumCurrentNoteOffset = 0;
             currentModelPos = modelPos;
             currentNote = note;
@@ -216,23 +219,26 @@ public class PracticeActivity extends Activity {
             ledview.setValue(diff * 100);  // displays too low/high arrows
         }
 
-        public boolean isInTune(double cent, int ticksInTuneSoFar) {
+        public boolean isInTune(double cent, double seconds,
+                                double secondsInTuneSoFar) {
             ledview.setDataValid(true);
             ledview.setValue(cent);
             // The following stat can probably go as we can determine a better
-            // score out of the histogram data.
-            sumCurrentNoteOffset += Math.abs(cent);
-            currentNoteOffsetCount++;
+            // score out of the histogram data. Weighted by time, so that the
+            // score doesn't depend on how often readings come in.
+            sumCurrentNoteOffset += Math.abs(cent) * seconds;
+            currentNoteSeconds += seconds;
 
             currentHistogram.increment((int)(cent + 50.0));
 
-            // Give some instructions depending on ticks in tune.
-            if (ticksInTuneSoFar == 0) {
-                if (startPracticeTime > 0) {
+            // Give some instructions depending on time in tune.
+            if (secondsInTuneSoFar == 0) {
+                if (practiceStarted) {
                     instructions.setText("Find the note and hold.");
                 }
-            } else if (startPracticeTime < 0 && ticksInTuneSoFar > 5) {
-                startPracticeTime = System.currentTimeMillis();
+            } else if (!practiceStarted
+                       && secondsInTuneSoFar > kPracticeStartSeconds) {
+                practiceStarted = true;
                 instructions.setText("Now we are on.");
             }
 
@@ -241,18 +247,19 @@ public class PracticeActivity extends Activity {
 
         public void onFinishedNote() {
             sumAbsoluteOffset += sumCurrentNoteOffset;
-            absoluteOffsetCount += currentNoteOffsetCount;
+            absoluteOffsetSeconds += currentNoteSeconds;
             currentHistogram.filter(20);
             currentNote.annotator = new HistogramAnnotator(staff.getNoteWidth(), currentHistogram);
-            positionalResult[currentModelPos] = sumCurrentNoteOffset / currentNoteOffsetCount;
+            positionalResult[currentModelPos] = currentNoteSeconds > 0
+                ? (float) (sumCurrentNoteOffset / currentNoteSeconds) : 0;
         }
 
-        private long startPracticeTime;
-        private float sumAbsoluteOffset;
-        private long absoluteOffsetCount;
+        private boolean practiceStarted;
+        private double sumAbsoluteOffset;     // cent * seconds
+        private double absoluteOffsetSeconds;
 
-        private float sumCurrentNoteOffset;
-        private long currentNoteOffsetCount;
+        private double sumCurrentNoteOffset;  // cent * seconds
+        private double currentNoteSeconds;
 
         float positionalResult[];
 
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+// A cheap voiced-activity detector deciding if a frame is worth running the
+// pitch tracker on. A frame is voiced if it is loud enough (RMS level) and
+// doesn't look like noise (zero crossing rate; a tone below 3kHz crosses
+// zero far less often than hiss does).
+// After the last voiced frame, the gate stays open for a number of
+// 'hangover' frames, so that short dips don't chop up a note.
+public final class SilenceGate {
+    // Below the -30dB peak level the tuner wants to display anything.
+    public static final double kDefaultThresholdDb = -40;
+    public static final double kDefaultMaxZeroCrossingRate = 0.25;
+    public static final int kDefaultHangoverFrames = 4;
+
+    public SilenceGate() {
+        this(kDefaultThresholdDb, kDefaultMaxZeroCrossingRate,
+             kDefaultHangoverFrames);
+    }
+
+    // thresholdDb: RMS level in dB (0dB being full scale) a frame needs to
+    //   exceed to be voiced.
+    // maxZeroCrossingRate: fraction of samples (0..1) at which the signal
+    //   crosses zero; frames crossing more often are considered noise.
+    // hangoverFrames: number of frames the gate stays open after the last
+    //   voiced frame.
+    public SilenceGate(double thresholdDb, double maxZeroCrossingRate,
+                       int hangoverFrames) {
+        this.threshold = Math.pow(10, thresholdDb / 20);
+        this.maxZeroCrossingRate = maxZeroCrossingRate;
+        this.hangoverFrames = hangoverFrames;
+    }
+
+    // Look at the 16 bit PCM frame and return if it should be analyzed.
+    public boolean isOpen(short samples[], int offset, int length) {
+        if (length <= 0) return isOpen(0, 0);
+        long sumSquares = 0;
+        int crossings = 0;
+        int last = samples[offset];
+        for (int i = offset; i < offset + length; ++i) {
+            final int s = samples[i];
+            sumSquares += s * s;
+            if ((s ^ last) < 0) ++crossings;  // sign change.
+            last = s;
+        }
+        return isOpen(Math.sqrt((double) sumSquares / length) / 32768.0,
+                      (double) crossings / length);
+    }
+
+    // Same for double samples in range -1..1
+    public boolean isOpen(double samples[], int offset, int length) {
+        if (length <= 0) return isOpen(0, 0);
+        double sumSquares = 0;
+        int crossings = 0;
+        double last = samples[offset];
+        for (int i = offset; i < offset + length; ++i) {
+            final double s = samples[i];
+            sumSquares += s * s;
+            if ((s < 0) != (last < 0)) ++crossings;
+            last = s;
+        }
+        return isOpen(Math.sqrt(sumSquares / length),
+                      (double) crossings / length);
+    }
+
+    // Same for 16 bit PCM in a buffer, e.g. a view of a direct ByteBuffer.
+    // Absolute get(i); the buffer position is not changed.
+    public boolean isOpen(ShortBuffer samples, int offset, int length) {
+        if (length <= 0) return isOpen(0, 0);
+        long sumSquares = 0;
+        int crossings = 0;
+        int last = samples.get(offset);
+        for (int i = offset; i < offset + length; ++i) {
+            final int s = samples.get(i);
+            sumSquares += s * s;
+            if ((s ^ last) < 0) ++crossings;  // sign change.
+            last = s;
+        }
+        return isOpen(Math.sqrt((double) sumSquares / length) / 32768.0,
+                      (double) crossings / length);
+    }
+
+    // Same for float samples in range -1..1
+    public boolean isOpen(FloatBuffer samples, int offset, int length) {
+        if (length <= 0) return isOpen(0, 0);
+        double sumSquares = 0;
+        int crossings = 0;
+        float last = samples.get(offset);
+        for (int i = offset; i < offset + length; ++i) {
+            final float s = samples.get(i);
+            sumSquares += s * s;
+            if ((s < 0) != (last < 0)) ++crossings;
+            last = s;
+        }
+        return isOpen(Math.sqrt(sumSquares / length),
+                      (double) crossings / length);
+    }
+
+    // RMS level of the last frame looked at, linear 0..1
+    public double getLastLevel() { return lastLevel; }
+
+    // Was the last frame voiced (as opposed to only kept open by hangover) ?
+    public boolean wasVoiced() { return lastVoiced; }
+
+    private boolean isOpen(double rms, double zeroCrossingRate) {
+        lastLevel = rms;
+        lastVoiced = rms > threshold
+            && zeroCrossingRate <= maxZeroCrossingRate;
+        if (lastVoiced) {
+            hangover = hangoverFrames;
+            return true;
+        }
+        if (hangover > 0) {
+            --hangover;
+            return true;
+        }
+        return false;
+    }
+
+    private final double threshold;
+    private final double maxZeroCrossingRate;
+    private final int hangoverFrames;
+    private int hangover;
+    private double lastLevel;
+    private boolean lastVoiced;
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+// Ring buffer feeding a PitchDetector in streaming mode.
+// Samples are appended in arbitrary sized chunks. Every time hopSize new
+// samples have arrived, a new window of the most recent 'size' samples is
+// ready for analysis; windows overlap if the hop is smaller than the window:
+//
+//   int pos = 0;
+//   while (pos < length) {
+//       pos += window.addSamples(chunk, pos, length - pos);
+//       if (window.isHopComplete())
+//           usePitch(detector.computePitch(window.getSamples(),
+//                                          window.getOffset()));
+//   }
+public final class StreamingWindow {
+    // Window of 'size' samples, by default without overlap.
+    public StreamingWindow(int size) {
+        this.size = size;
+        ring = new double[2 * size];
+        hopSize = size;
+    }
+
+    public int getSize() { return size; }
+
+    // Set number of new samples between two windows.
+    // Range 1..size. Default is size: non-overlapping windows.
+    public void setHopSize(int hop) {
+        if (hop < 1 || hop > size) throw new IllegalArgumentException(
+                "Hop size needs to be in range 1.." + size + ": " + hop);
+        hopSize = hop;
+        hopFill = 0;
+    }
+    public int getHopSize() { return hopSize; }
+
+    // Append up to 'length' samples, starting at chunk[offset], to the ring
+    // buffer. Stops at the next hop boundary, so that the caller can check
+    // isHopComplete(). Returns number of samples consumed.
+    public int addSamples(double chunk[], int offset, int length) {
+        if (hopFill >= hopSize) hopFill = 0;  // previous hop was dealt with.
+        final int count = Math.min(length, hopSize - hopFill);
+        for (int i = 0; i < count; ++i) {
+            ring[ringPos] = ring[ringPos + size] = chunk[offset + i];
+            if (++ringPos == size) ringPos = 0;
+        }
+        hopFill += count;
+        ringFill = Math.min(size, ringFill + count);
+        return count;
+    }
+
+    // Same as above for 16 bit PCM samples; they are converted while being
+    // added to the ring.
+    public int addSamples(short chunk[], int offset, int length) {
+        if (hopFill >= hopSize) hopFill = 0;  // previous hop was dealt with.
+        final int count = Math.min(length, hopSize - hopFill);
+        for (int i = 0; i < count; ++i) {
+            ring[ringPos] = ring[ringPos + size]
+                = chunk[offset + i] * (1 / 32768.0);
+            if (++ringPos == size) ringPos = 0;
+        }
+        hopFill += count;
+        ringFill = Math.min(size, ringFill + count);
+        return count;
+    }
+
+    // Same, reading from buffers with absolute get(offset + i).
+    public int addSamples(ShortBuffer chunk, int offset, int length) {
+        if (hopFill >= hopSize) hopFill = 0;  // previous hop was dealt with.
+        final int count = Math.min(length, hopSize - hopFill);
+        for (int i = 0; i < count; ++i) {
+            ring[ringPos] = ring[ringPos + size]
+                = chunk.get(offset + i) * (1 / 32768.0);
+            if (++ringPos == size) ringPos = 0;
+        }
+        hopFill += count;
+        ringFill = Math.min(size, ringFill + count);
+        return count;
+    }
+
+    public int addSamples(FloatBuffer chunk, int offset, int length) {
+        if (hopFill >= hopSize) hopFill = 0;  // previous hop was dealt with.
+        final int count = Math.min(length, hopSize - hopFill);
+        for (int i = 0; i < count; ++i) {
+            ring[ringPos] = ring[ringPos + size] = chunk.get(offset + i);
+            if (++ringPos == size) ringPos = 0;
+        }
+        hopFill += count;
+        ringFill = Math.min(size, ringFill + count);
+        return count;
+    }
+
+    // Returns true if a new hop worth of samples has been added and the ring
+    // contains a full window. Then it is time to analyze the window.
+    public boolean isHopComplete() {
+        return hopFill >= hopSize && ringFill >= size;
+    }
+
+    // The current window are the 'size' samples starting at
+    // getSamples()[getOffset()], oldest first. The ring is mirrored, so the
+    // window is always contiguous.
+    public double[] getSamples() { return ring; }
+    public int getOffset() { return ringPos; }
+
+    // Forget all samples, e.g. after a gap in the input.
+    public void reset() {
+        ringPos = 0;
+        ringFill = 0;
+        hopFill = 0;
+    }
+
+    private final int size;
+    private final double ring[];  // mirrored: ring[i] == ring[i + size]
+    private int hopSize;
+    private int hopFill;          // samples added in the current hop.
+    private int ringPos;          // next write position; oldest sample.
+    private int ringFill;         // valid samples in ring, up to size.
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+// Precise deviation from a known reference frequency, the way a strobe
+// tuner shows it: the signal is mixed with a locally generated reference
+// (quadrature demodulation), and the phase of the result drifts with the
+// difference between signal and reference frequency.
+//
+// Per sample, this is an oscillator step, two multiplications for mixing
+// and a sliding sum over the integration window, which spans whole periods
+// of the reference, so that the mixing product at twice the frequency (and
+// harmonics) cancels out. Every kReadoutSamples, the phase of the sum is
+// taken; the frequency offset is the slope of a least squares fit over the
+// phases of the last kBaselineSeconds.
+//
+// The reference needs to be within a few cents of the signal; the coarse
+// estimate of a pitch detector, rounded to the nearest note, is good.
+public final class StrobeTuner {
+    private static final double kIntegrationSeconds = 0.05;
+    private static final double kBaselineSeconds = 0.5;
+    private static final int kReadoutSamples = 256;
+    private static final int kMinReadouts = 8;   // before we report anything.
+    private static final int kRenormalizeInterval = 1024;
+
+    public StrobeTuner(int sampleRate) {
+        this.sampleRate = sampleRate;
+        final int maxWindow = (int) (2 * kIntegrationSeconds * sampleRate) + 1;
+        mixedI = new double[maxWindow];
+        mixedQ = new double[maxWindow];
+        phases = new double[Math.max(kMinReadouts,
+                                     (int) (kBaselineSeconds * sampleRate
+                                            / kReadoutSamples))];
+    }
+
+    public int getSampleRate() { return sampleRate; }
+
+    // Set frequency to compare against. Starts over if it differs from the
+    // current one.
+    public void setReference(double frequency) {
+        if (frequency == reference) return;
+        reference = frequency;
+        final double omega = 2 * Math.PI * frequency / sampleRate;
+        stepCos = Math.cos(omega);
+        stepSin = Math.sin(omega);
+        // Whole periods, as close to kIntegrationSeconds as possible.
+        final double period = sampleRate / frequency;
+        final long periods = Math.max(1, Math.round(kIntegrationSeconds
+                                                    * frequency));
+        window = (int) Math.min(mixedI.length,
+                                Math.round(periods * period));
+        reset();
+    }
+
+    public double getReference() { return reference; }
+
+    // Forget everything seen so far, e.g. after a pause.
+    public void reset() {
+        oscCos = 1.0;
+        oscSin = 0.0;
+        sumI = sumQ = 0;
+        ringPos = ringFill = 0;
+        sinceReadout = sinceRenormalize = 0;
+        phaseCount = phasePos = 0;
+        unwrapped = 0;
+        lastPhase = 0;
+    }
+
+    // Add 16 bit PCM samples.
+    public void addSamples(short samples[], int offset, int length) {
+        if (reference <= 0) return;
+        for (int i = offset; i < offset + length; ++i) {
+            step(samples[i] * (1 / 32768.0));
+        }
+    }
+
+    // Add samples in range -1..1
+    public void addSamples(double samples[], int offset, int length) {
+        if (reference <= 0) return;
+        for (int i = offset; i < offset + length; ++i) {
+            step(samples[i]);
+        }
+    }
+
+    // Same from buffers; absolute get(i), the position is not changed.
+    public void addSamples(ShortBuffer samples, int offset, int length) {
+        if (reference <= 0) return;
+        for (int i = offset; i < offset + length; ++i) {
+            step(samples.get(i) * (1 / 32768.0));
+        }
+    }
+
+    public void addSamples(FloatBuffer samples, int offset, int length) {
+        if (reference <= 0) return;
+        for (int i = offset; i < offset + length; ++i) {
+            step(samples.get(i));
+        }
+    }
+
+    // Is there enough signal history to report a frequency ?
+    public boolean isLocked() { return phaseCount >= kMinReadouts; }
+
+    // Difference in Hz between signal and reference. Only meaningful if
+    // isLocked().
+    public double getFrequencyOffset() {
+        // Least squares slope of phase over readout index.
+        final int n = phaseCount;
+        double sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+        for (int k = 0; k < n; ++k) {
+            final double y = phases[(phasePos - n + k + phases.length)
+                                    % phases.length];
+            sumX += k;
+            sumY += y;
+            sumXY += k * y;
+            sumXX += (double) k * k;
+        }
+        final double denominator = n * sumXX - sumX * sumX;
+        if (denominator <= 0) return 0.0;
+        final double radiansPerReadout = (n * sumXY - sumX * sumY) / denominator;
+        return radiansPerReadout * sampleRate / (2 * Math.PI * kReadoutSamples);
+    }
+
+    // Measured frequency of the signal.
+    public double getFrequency() { return reference + getFrequencyOffset(); }
+
+    // Deviation from the reference in cent.
+    public double getCents() {
+        return 1200 * Math.log(getFrequency() / reference) / Math.log(2);
+    }
+
+    // Amplitude of the signal component near the reference, 0..1
+    public double getLevel() {
+        return ringFill < window ? 0.0 : 2 * Math.hypot(sumI, sumQ) / window;
+    }
+
+    private void step(double sample) {
+        // Mix with e^(-j*phase)
+        final double i = sample * oscCos;
+        final double q = -sample * oscSin;
+
+        // Sliding sum over the integration window.
+        if (ringFill == window) {
+            sumI -= mixedI[ringPos];
+            sumQ -= mixedQ[ringPos];
+        } else {
+            ++ringFill;
+        }
+        mixedI[ringPos] = i;
+        mixedQ[ringPos] = q;
+        sumI += i;
+        sumQ += q;
+        if (++ringPos == window) ringPos = 0;
+
+        // Advance the oscillator by rotation.
+        final double c = oscCos * stepCos - oscSin * stepSin;
+        oscSin = oscSin * stepCos + oscCos * stepSin;
+        oscCos = c;
+        if (++sinceRenormalize == kRenormalizeInterval) {
+            // Keep rounding errors from changing the amplitude.
+            final double scale = 1 / Math.hypot(oscCos, oscSin);
+            oscCos *= scale;
+            oscSin *= scale;
+            sinceRenormalize = 0;
+        }
+
+        if (++sinceReadout == kReadoutSamples) {
+            sinceReadout = 0;
+            if (ringFill == window) readout();
+        }
+    }
+
+    private void readout() {
+        final double phase = Math.atan2(sumQ, sumI);
+        double delta = phase - lastPhase;
+        if (delta > Math.PI) delta -= 2 * Math.PI;
+        if (delta < -Math.PI) delta += 2 * Math.PI;
+        lastPhase = phase;
+        unwrapped = phaseCount == 0 ? phase : unwrapped + delta;
+        phases[phasePos] = unwrapped;
+        phasePos = (phasePos + 1) % phases.length;
+        if (phaseCount < phases.length) ++phaseCount;
+    }
+
+    private final int sampleRate;
+    private double reference;
+
+    // Reference oscillator.
+    private double stepCos, stepSin;
+    private double oscCos, oscSin;
+    private int sinceRenormalize;
+
+    // Integration window.
+    private final double mixedI[];
+    private final double mixedQ[];
+    private int window;
+    private int ringPos;
+    private int ringFill;
+    private double sumI, sumQ;
+
+    // Phase history, unwrapped.
+    private final double phases[];
+    private int phasePos;
+    private int phaseCount;
+    private int sinceReadout;
+    private double lastPhase;
+    private double unwrapped;
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import android.os.Trace;
+
+// PitchTrace sections as android.os.Trace sections. Only create it on
+// Android 4.3 (SDK 18) and later, which have that class.
+final class SystemTracer implements PitchTrace.Tracer {
+    @Override
+    public void begin(String name) { Trace.beginSection(name); }
+
+    @Override
+    public void end() { Trace.endSection(); }
+}
@@ -17,10 +17,9 @@
 package net.zllr.precisepitch;
 
 import android.graphics.Color;
+import android.os.Build;
 import android.os.Bundle;
 import android.app.Activity;
-import android.os.Handler;
-import android.os.Message;
 import android.view.View;
 import android.widget.*;
 import net.zllr.precisepitch.model.MeasuredPitch;
@@ -28,7 +27,17 @@ import net.zllr.precisepitch.view.CenterOffsetView;
 
 public class TunerActivity extends Activity {
     private static final int kCentThreshold = 10;  // TODO: make configurable
+    // Strobe mode, for instrument setup: fraction-of-a-cent precision.
+    // Toggled with a long press on the note.
+    private static final float kStrobeCentThreshold = 1;
     private static final boolean kShowTechInfo = false;
+    private static final int kHopSize = 512;  // new reading every ~12ms.
+    // Students leave the tuner open between pieces. Save battery then; the
+    // first note after a pause is picked up after at most ~100ms.
+    private static final double kIdleAfterSeconds = 10;
+    private static final int kIdleProbeInterval = 8;
+    private static final long kMetricsUpdateMillis = 500;
+    private static final int kSystemTraceSdk = 18;  // android.os.Trace
 
     private TextView frequencyDisplay;
     private TextView noteDisplay;
@@ -39,8 +48,13 @@ public class TunerActivity extends Activity {
     private TextView nextNote;
     private TextView instruction;
     private CenterOffsetView offsetCentView;
+    private TextView metricsOverlay;
+    private final PitchMetrics.Snapshot metrics = new PitchMetrics.Snapshot();
 
     private PitchSource pitchPoster;
+    private UIUpdater uiUpdater;
+    private boolean latencyTestMode;
+    private LatencyTester latencyTester;  // while latencyTestMode.
     private ImageView earIcon;
 
     private enum KeyDisplay {
@@ -48,6 +62,7 @@ public class TunerActivity extends Activity {
         DISPLAY_SHARP,
     }
     private KeyDisplay keyDisplay = KeyDisplay.DISPLAY_SHARP;
+    private boolean strobeMode;
     private static final String noteNames[][] = {
         { "A", "Bb", "B", "C", "Db", "D", "Eb", "E", "F", "Gb", "G", "Ab" },
         { "A", "A#", "B", "C", "C#", "D", "D#", "E", "F", "F#", "G", "G#" },
@@ -70,9 +85,7 @@ public class TunerActivity extends Activity {
         instruction.setText("");
 
         offsetCentView = (CenterOffsetView) findViewById(R.id.centView);
-        offsetCentView.setRange(25);
-        offsetCentView.setQuantization(2.5f);
-        offsetCentView.setMarkAt(kCentThreshold);
+        setCentDisplay();
 
         int techVisibility = kShowTechInfo ? View.VISIBLE : View.INVISIBLE;
         frequencyDisplay = (TextView) findViewById(R.id.frequencyDisplay);
@@ -80,7 +93,131 @@ public class TunerActivity extends Activity {
         decibelView = (TextView) findViewById(R.id.decibelView);
         decibelView.setVisibility(techVisibility);
 
+        metricsOverlay = (TextView) findViewById(R.id.metricsOverlay);
+
         addAccidentalListener();        
+        addStrobeModeListener();
+        addMetricsOverlayListener();
+    }
+
+    // Long press on the cent display shows what the pitch pipeline is up to.
+    // A tap on that starts or stops the latency self-test, a long press
+    // switches system tracing of the pipeline and the views (for all
+    // activities, until switched off again).
+    private void addMetricsOverlayListener() {
+        metricsOverlay.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                final String message;
+                if (PitchTrace.isEnabled()) {
+                    PitchTrace.setTracer(null);
+                    message = "Tracing off";
+                } else if (Build.VERSION.SDK_INT >= kSystemTraceSdk) {
+                    PitchTrace.setTracer(new SystemTracer());
+                    message = "Tracing to systrace";
+                } else {
+                    message = "No systrace on this Android version";
+                }
+                Toast.makeText(TunerActivity.this, message,
+                               Toast.LENGTH_SHORT).show();
+                return true;
+            }
+        });
+        metricsOverlay.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                latencyTestMode = !latencyTestMode;
+                stopSampling();
+                startSampling();
+                Toast.makeText(TunerActivity.this,
+                               latencyTestMode
+                               ? "Latency test: turn up the volume and be quiet"
+                               : "Latency test stopped",
+                               Toast.LENGTH_SHORT).show();
+            }
+        });
+        offsetCentView.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                if (metricsOverlay.getVisibility() == View.VISIBLE) {
+                    metricsOverlay.setVisibility(View.GONE);
+                    metricsOverlay.removeCallbacks(metricsUpdater);
+                } else {
+                    metricsOverlay.setVisibility(View.VISIBLE);
+                    metricsUpdater.run();
+                }
+                return true;
+            }
+        });
+    }
+
+    private final Runnable metricsUpdater = new Runnable() {
+        public void run() {
+            if (metricsOverlay.getVisibility() != View.VISIBLE) return;
+            if (pitchPoster instanceof MicrophonePitchSource) {
+                ((MicrophonePitchSource) pitchPoster).getMetrics(metrics);
+                metricsOverlay.setText(String.format(
+                    "compute  p50 %5dus p99 %5dus max %5dus\n"
+                    + "delivery p50 %5dus p99 %5dus max %5dus\n"
+                    + "display  p50 %5dus p99 %5dus max %5dus\n"
+                    + "frames %d, gate open %.0f%%, idle %d\n"
+                    + "overruns %d, underruns %d\n"
+                    + "readings %d, shown %d, skipped %d",
+                    metrics.computeP50Micros, metrics.computeP99Micros,
+                    metrics.computeMaxMicros,
+                    metrics.deliveryP50Micros, metrics.deliveryP99Micros,
+                    metrics.deliveryMaxMicros,
+                    metrics.displayP50Micros, metrics.displayP99Micros,
+                    metrics.displayMaxMicros,
+                    metrics.frames, 100 * metrics.getGateDutyCycle(),
+                    metrics.idleFrames,
+                    metrics.overruns, metrics.underruns,
+                    metrics.readings, metrics.displayedReadings,
+                    metrics.missedReadings));
+                if (latencyTester != null) {
+                    metricsOverlay.append(String.format(
+                        "\nlatency test: %d bursts, heard %d, shown %d",
+                        latencyTester.getBursts(), latencyTester.getDetected(),
+                        latencyTester.getMeasured()));
+                    appendLatency("play->input", latencyTester.playbackToInputMicros);
+                    appendLatency("input->note", latencyTester.inputToReadingMicros);
+                    appendLatency("note->drawn", latencyTester.readingToDrawnMicros);
+                    appendLatency("total      ", latencyTester.totalMicros);
+                }
+            }
+            metricsOverlay.postDelayed(this, kMetricsUpdateMillis);
+        }
+    };
+
+    private void setCentDisplay() {
+        if (strobeMode) {
+            offsetCentView.setRange(5);
+            offsetCentView.setQuantization(0.25f);
+            offsetCentView.setMarkAt(kStrobeCentThreshold);
+            offsetCentView.setDecimals(2);
+        } else {
+            offsetCentView.setRange(25);
+            offsetCentView.setQuantization(2.5f);
+            offsetCentView.setMarkAt(kCentThreshold);
+            offsetCentView.setDecimals(0);
+        }
+    }
+
+    private void addStrobeModeListener() {
+        noteDisplay.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                strobeMode = !strobeMode;
+                if (pitchPoster instanceof MicrophonePitchSource) {
+                    ((MicrophonePitchSource) pitchPoster).setStrobeMode(strobeMode);
+                }
+                setCentDisplay();
+                Toast.makeText(TunerActivity.this,
+                               strobeMode ? "Strobe mode" : "Normal mode",
+                               Toast.LENGTH_SHORT).show();
+                return true;
+            }
+        });
     }
     
     private void addAccidentalListener() {
@@ -103,25 +240,65 @@ public class TunerActivity extends Activity {
         ((RadioButton) findViewById(R.id.sharpRadio)).setChecked(true);
     }
 
+    private void appendLatency(String name, LatencyHistogram h) {
+        metricsOverlay.append(String.format(
+            "\n%s p50 %4.1fms p90 %4.1fms max %4.1fms", name,
+            h.getValueAtPercentile(50) / 1000.0,
+            h.getValueAtPercentile(90) / 1000.0, h.getMax() / 1000.0));
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
-        pitchPoster.stopSampling();
-        pitchPoster = null;
+        stopSampling();
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        pitchPoster = new MicrophonePitchSource();
-        pitchPoster.setHandler(new UIUpdateHandler());
+        startSampling();
+    }
+
+    private void startSampling() {
+        final MicrophonePitchSource source = new MicrophonePitchSource(60, kHopSize);
+        if (latencyTestMode) {
+            latencyTester = new LatencyTester(source);
+        } else {
+            source.setIdleMode(kIdleAfterSeconds, kIdleProbeInterval);
+            source.setStrobeMode(strobeMode);
+        }
+        pitchPoster = source;
+        uiUpdater = new UIUpdater(new LatestPitchSlot());
+        uiUpdater.setMetrics(source.getPitchMetrics());
+        pitchPoster.setLatestPitchSlot(uiUpdater.getSlot());
         pitchPoster.startSampling();
+        uiUpdater.start();
+        if (latencyTester != null) {
+            offsetCentView.setDrawListener(latencyTester);
+            latencyTester.start();
+        }
     }
 
-    // Whenever MicrophonePitchSource has a new note value available, it will
-    // post it to the message queue, received here.
-    private final class UIUpdateHandler extends Handler {
-        private final static int kMaxWait = 32;
+    private void stopSampling() {
+        if (latencyTester != null) {
+            latencyTester.stop();
+            offsetCentView.setDrawListener(null);
+            latencyTester = null;
+        }
+        pitchPoster.stopSampling();
+        pitchPoster = null;
+        uiUpdater.stop();
+        uiUpdater = null;
+    }
+
+    // Once per display frame, gets the latest value MicrophonePitchSource
+    // came up with. Analysis is faster than the display, so readings in
+    // between are skipped; we always show the freshest one.
+    private final class UIUpdater extends PitchFrameReceiver {
+        // Number of readings to fade out. At about one per frame, 3 seconds.
+        private final static int kMaxWait = 180;
+
+        UIUpdater(LatestPitchSlot slot) { super(slot); }
 
         // Old Android versions don't seem to have the 'setAlpha()' method.
         private void setAlphaOnText(TextView v, float alpha) {
@@ -140,10 +317,9 @@ public class TunerActivity extends Activity {
             offsetCentView.setFadeAlpha(alpha);
         }
 
-        public void handleMessage(Message msg) {
-            final MeasuredPitch data
-                = (MeasuredPitch) msg.obj;
-
+        // data is null for silence.
+        @Override
+        protected void onPitch(MeasuredPitch data) {
             if (data != null && data.decibel > -30) {
                 frequencyDisplay.setText(String.format(data.frequency < 200 ? "%.1fHz" : "%.0fHz",
                                                        data.frequency));
@@ -154,7 +330,8 @@ public class TunerActivity extends Activity {
                 sharpDisplay.setVisibility("#".equals(accidental) ? View.VISIBLE : View.INVISIBLE);
                 nextNote.setText(noteNames[keyDisplay.ordinal()][(data.note + 1) % 12]);
                 prevNote.setText(noteNames[keyDisplay.ordinal()][(data.note + 11) % 12]);
-                final boolean inTune = Math.abs(data.cent) <= kCentThreshold;
+                final boolean inTune = Math.abs(data.cent)
+                    <= (strobeMode ? kStrobeCentThreshold : kCentThreshold);
                 final int c = inTune ? Color.rgb(50, 255, 50) : Color.rgb(255,50, 50);
                 noteDisplay.setTextColor(c);
                 flatDisplay.setTextColor(c);
@@ -165,7 +342,7 @@ public class TunerActivity extends Activity {
                     instruction.setText("");
                 }
                 setFadeableComponentAlpha(1.0f);
-                offsetCentView.setValue((int) data.cent);
+                offsetCentView.setValue(strobeMode ? data.cent : (int) data.cent);
                 fadeCountdown = kMaxWait;
             } else {
                 --fadeCountdown;
@@ -179,10 +356,11 @@ public class TunerActivity extends Activity {
             } else {
                 decibelView.setText("");
             }
-            lastPitch = data;
+            if (latencyTester != null && latencyTester.onShown(data)) {
+                offsetCentView.invalidate();
+            }
         }
 
-        private MeasuredPitch lastPitch;
         private int fadeCountdown;
     }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+// Time-domain pitch detection with the YIN algorithm
+//   de Cheveigne, Kawahara: "YIN, a fundamental frequency estimator for
+//   speech and music", J. Acoust. Soc. Am. 111 (4), 2002
+//
+// The first half of the window is compared with itself shifted by each
+// candidate lag (the difference function). The lag with the smallest
+// difference, relative to the mean of all smaller lags (cumulative mean
+// normalization), is the period; refined between samples by fitting a
+// parabola.
+// Unlike the wavelet algorithm, this only needs about two periods of the
+// lowest frequency, so bass notes are found with a shorter window.
+public final class YinPitchDetector extends AbstractPitchDetector {
+    private static final double kThreshold = 0.15;
+    private static final double kMaxFrequency = 3000.0;
+
+    // Returns a suggested sample count needed to properly detect the given
+    // minimum frequency: lags of one period, compared over one period.
+    public static int suggestedSamplecount(int sampleRate, int minFrequency) {
+        final int minSamples = (int) (2.2 * sampleRate / minFrequency);
+        int minSamplesPower2 = 512;
+        while (minSamplesPower2 < minSamples) {
+            minSamplesPower2 <<= 1;
+        }
+        return minSamplesPower2;
+    }
+
+    public YinPitchDetector(int sampleRate, int samplecount) {
+        super(sampleRate, samplecount);
+        difference = new double[samplecount / 2];
+    }
+
+    @Override
+    public double getLastPeak() { return lastPeak; }
+
+    @Override
+    public double computePitch(double samples[], int offset) {
+        return tracking.track(computeYinPitch(samples, offset));
+    }
+
+    // Returns the pitch in the window; stateless.
+    public double computeYinPitch(double samples[], int offset) {
+        final int integration = samplecount / 2;
+        final int maxLag = integration - 2;  // room for parabola at the end.
+        final int minLag = Math.max(2, (int) (sampleRate / kMaxFrequency));
+
+        double peak = 0;
+        for (int i = 0; i < samplecount; ++i) {
+            peak = Math.max(peak, Math.abs(samples[offset + i]));
+        }
+        lastPeak = peak;
+
+        // Difference function, immediately normalized by the cumulative mean
+        // of all difference values up to that lag.
+        difference[0] = 1.0;
+        double runningSum = 0;
+        for (int lag = 1; lag <= maxLag + 1; ++lag) {
+            double sum = 0;
+            for (int j = 0; j < integration; ++j) {
+                final double delta = samples[offset + j]
+                    - samples[offset + j + lag];
+                sum += delta * delta;
+            }
+            runningSum += sum;
+            difference[lag] = runningSum > 0 ? sum * lag / runningSum : 1.0;
+        }
+
+        // First dip below the threshold, followed down to its minimum.
+        int lag = minLag;
+        while (lag <= maxLag && difference[lag] >= kThreshold) {
+            ++lag;
+        }
+        if (lag > maxLag) {
+            return 0.0;  // nothing periodic enough.
+        }
+        while (lag < maxLag && difference[lag + 1] < difference[lag]) {
+            ++lag;
+        }
+
+        // Parabolic interpolation between the neighbors.
+        final double a = difference[lag - 1];
+        final double b = difference[lag];
+        final double c = difference[lag + 1];
+        final double curvature = a - 2 * b + c;
+        final double shift = curvature > 0 ? (a - c) / (2 * curvature) : 0;
+        return sampleRate / (lag + shift);
+    }
+
+    private final double difference[];
+    private double lastPeak;
+}
@@ -19,7 +19,14 @@ package net.zllr.precisepitch.model;
 // This contains the raw frequency as well as the
 // semi-tone it translates to (though we all map everything to one octave as our algorithm is
 // not very robust in distinguishing octaves).
+//
+// Mutable, so that pitch sources can fill preallocated records (see
+// PitchEventRing) instead of creating one per measurement. A record with
+// a frequency of 0 stands for silence.
 public final class MeasuredPitch {
+    // Silence, until set.
+    public MeasuredPitch() {}
+
     public MeasuredPitch(double f, int n, double c, double d) {
         frequency = f;
         note = n;
@@ -30,30 +37,88 @@ public final class MeasuredPitch {
     // Convenience factory to create pitch data. linearVolume range is 0..1
     public static MeasuredPitch createPitchData(double frequency,
                                                 double linearVolume) {
+        final MeasuredPitch result = new MeasuredPitch();
+        return result.set(frequency, linearVolume) ? result : null;
+    }
+
+    // Like createPitchData(), but in place. Returns false and sets silence if
+    // the frequency is below our range.
+    public boolean set(double frequency, double linearVolume) {
         final double kPitchA = 440.0; // Hz.
         final double base = kPitchA / 8; // The A just below our C string (55Hz)
         final double d = Math.exp(Math.log(2) / 1200);
         final double cent_above_base = Math.log(frequency / base) / Math.log(d);
         final int scale_above_C = (int)Math.round(cent_above_base / 100.0) - 3;
         if (scale_above_C < 0) {
-            return null;
+            setSilence();
+            return false;
         }
 
         // Press into regular scale
         double scale = cent_above_base / 100.0;
         final int rounded = (int) Math.round(scale);
-        final double cent = 100 * (scale - rounded);
-        final double vu_db = 20 * (Math.log(linearVolume) / Math.log(10));
-        return new MeasuredPitch(frequency, rounded, cent, vu_db);
+        this.frequency = frequency;
+        this.note = rounded;
+        this.cent = 100 * (scale - rounded);
+        this.decibel = 20 * (Math.log(linearVolume) / Math.log(10));
+        return true;
+    }
+
+    public void setSilence() {
+        frequency = 0;
+        note = 0;
+        cent = 0;
+        decibel = Double.NEGATIVE_INFINITY;
+    }
+
+    public boolean isSilence() { return frequency <= 0; }
+
+    public void copyFrom(MeasuredPitch other) {
+        frequency = other.frequency;
+        note = other.note;
+        cent = other.cent;
+        decibel = other.decibel;
+        timestampNanos = other.timestampNanos;
+        sampleIndex = other.sampleIndex;
+        sampleRate = other.sampleRate;
+        captureNanos = other.captureNanos;
+        confidence = other.confidence;
+    }
+
+    // When the measured sound was played, in seconds on the capture sample
+    // clock. Only differences between readings of the same source are
+    // meaningful. Sources without a sample clock fall back to the time of
+    // the measurement.
+    public double getSeconds() {
+        return sampleRate > 0
+            ? (double) sampleIndex / sampleRate
+            : timestampNanos / 1e9;
     }
 
     // Raw frequency.
-    public final double frequency;
+    public double frequency;
 
     // (note % 12) returns a range from 0 (A) to 11 (Ab/G#).
     // The absolute range starts with 0 (low A, 55Hz), 12 = 110Hz ...
-    public final int note;
+    public int note;
+
+    public double cent;     // How far off we are in cent.
+    public double decibel;  // input level in decibel.
+
+    // System.nanoTime() when the measurement was made.
+    public long timestampNanos;
+
+    // Index of the sample at the center of the analyzed window, counted in
+    // captured samples since the source started, and the capture sample
+    // rate; sampleRate is 0 for sources without a sample clock.
+    public long sampleIndex;
+    public int sampleRate;
+
+    // System.nanoTime() when the sample at sampleIndex was captured, as far
+    // as we can tell. System.nanoTime() - captureNanos is how old the
+    // sound is by the time the reading is used.
+    public long captureNanos;
 
-    public final double cent;     // How far off we are in cent.
-    public final double decibel;  // input level in decibel.
+    // Confidence of the pitch detector in the pitch, 0..5
+    public int confidence;
 }
@@ -22,6 +22,7 @@ import android.graphics.Paint;
 import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.View;
+import net.zllr.precisepitch.PitchTrace;
 
 // Displays a little sequence of circles, color-filled when 'active'.
 // Something like [o o o o o O o o o o o].
@@ -32,6 +33,7 @@ import android.view.View;
 public class CenterOffsetView extends View {
     private static final int kWidth = 580;  // TODO: make property
     private static final int kHeight = 50;
+    private static final String kTraceSection = "CenterOffsetView.onDraw";
 
     private final Paint emptyCirclePaint;
     private final Paint filledRedCirclePaint;
@@ -43,8 +45,10 @@ public class CenterOffsetView extends View {
     private double range = 50;
     private double value;
     private float quantization = 5;
+    private int decimals = 0;
     private boolean isDataValid;
     private float markAt;
+    private DrawListener drawListener;
 
     public CenterOffsetView(Context context) {
         this(context, null);
@@ -113,18 +117,31 @@ public class CenterOffsetView extends View {
     // Quantization of the range.
     public void setQuantization(float q) {
         if (q == this.quantization) return;
-        if (q < 1) throw new IllegalArgumentException(
-                                     "Quantization needs to be >= 1: " + q);
+        if (q <= 0) throw new IllegalArgumentException(
+                                     "Quantization needs to be > 0: " + q);
         this.quantization = q;
         invalidate();
     }
 
+    // Number of decimals of the cent value shown below. Default 0.
+    public void setDecimals(int d) {
+        if (d == decimals) return;
+        decimals = d;
+        invalidate();
+    }
+
     public void setMarkAt(float m) {
         if (markAt != m) {
             markAt = m;
             invalidate();
         }
     }
+
+    // Listener told after each onDraw(); null for none.
+    public void setDrawListener(DrawListener listener) {
+        drawListener = listener;
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         setMeasuredDimension(kWidth, 2 * kHeight);  // we show text below.
@@ -132,6 +149,13 @@ public class CenterOffsetView extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
+        final PitchTrace.Tracer trace = PitchTrace.begin(kTraceSection);
+        drawLeds(canvas);
+        PitchTrace.end(trace);
+        if (drawListener != null) drawListener.onDrawn(this);
+    }
+
+    private void drawLeds(Canvas canvas) {
         filledRedCirclePaint.setColor(Color.argb(alphaChannel, 200, 0, 0));
         filledGreenCirclePaint.setColor(Color.argb(alphaChannel, 40, 255, 40));
         emptyCirclePaint.setColor(Color.argb(alphaChannel, 63, 63, 63));
@@ -196,7 +220,7 @@ public class CenterOffsetView extends View {
             }
         }
         if (Math.abs(value) <= range) {
-            canvas.drawText(String.format("%+.0f¢", value),
+            canvas.drawText(String.format("%+." + decimals + "f¢", value),
                             kWidth/2, textY, centAnnotationPaint);
         }
     }
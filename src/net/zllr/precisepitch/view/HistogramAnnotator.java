@@ -1,6 +1,7 @@
 package net.zllr.precisepitch.view;
 
 import net.zllr.precisepitch.Histogram;
+import net.zllr.precisepitch.PitchTrace;
 import net.zllr.precisepitch.model.DisplayNote;
 import android.graphics.Canvas;
 import android.graphics.Color;
@@ -8,6 +9,7 @@ import android.graphics.Paint;
 import android.graphics.RectF;
 
 public class HistogramAnnotator implements DisplayNote.Annotator {
+    private static final String kTraceSection = "HistogramAnnotator.draw";
     private static final Paint borderPaint;
     private static final Paint referenceLine;
     private static final Paint histPaint;
@@ -82,6 +84,13 @@ public class HistogramAnnotator implements DisplayNote.Annotator {
 
     public void draw(DisplayNote note, Canvas canvas,
                      RectF staffBoundingBox, RectF noteBoundingBox) {
+        final PitchTrace.Tracer trace = PitchTrace.begin(kTraceSection);
+        drawHistogram(note, canvas, staffBoundingBox, noteBoundingBox);
+        PitchTrace.end(trace);
+    }
+
+    private void drawHistogram(DisplayNote note, Canvas canvas,
+                               RectF staffBoundingBox, RectF noteBoundingBox) {
         float halfWidth = 0.8f * drawWidth;
         // The right side is the stable one, the left side might contain the accidental.
         float centerX = noteBoundingBox.right - halfWidth;
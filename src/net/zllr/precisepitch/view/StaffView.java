@@ -23,6 +23,7 @@ import android.util.AttributeSet;
 import android.view.View;
 import android.widget.HorizontalScrollView;
 
+import net.zllr.precisepitch.PitchTrace;
 import net.zllr.precisepitch.model.DisplayNote;
 import net.zllr.precisepitch.model.NoteDocument;
 
@@ -45,6 +46,7 @@ public class StaffView extends View {
     private static final int kLowDisplayRange  = 3;  // below lowest line
     private static final int kHighDisplayRange = 5;  // above highest line
     private static final int kTotalDisplayRange = kLowDisplayRange + 4 + kHighDisplayRange;
+    private static final String kTraceSection = "StaffView.onDraw";
 
     public StaffView(Context context) {
         this(context, null);
@@ -139,6 +141,12 @@ public class StaffView extends View {
     }
 
     protected void onDraw(Canvas canvas) {
+        final PitchTrace.Tracer trace = PitchTrace.begin(kTraceSection);
+        drawStaff(canvas);
+        PitchTrace.end(trace);
+    }
+
+    private void drawStaff(Canvas canvas) {
         canvas.drawPaint(backgroundColor);
         // Interesting thing to find out: for some reason canvas.getHeight()
         // and this.getHeight() are different on the Android 2.3 device.
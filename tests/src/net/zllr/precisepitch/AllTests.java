@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+// Runs the plain JVM tests; exits with status 1 if any of them fails.
+// With arguments, only the tests with these names.
+//   cd tests && ant
+public final class AllTests {
+    private AllTests() {}
+
+    public static void main(String args[]) {
+        final JvmTest tests[] = {
+            new DecimatorTest(),
+            new LatencyHistogramTest(),
+            new PcmRingTest(),
+            new LatestPitchSlotTest(),
+            new ModeSearchTest(),
+            new StrobeTunerTest(),
+        };
+        int failed = 0;
+        int ran = 0;
+        for (JvmTest test : tests) {
+            if (!selected(test.getName(), args)) continue;
+            ++ran;
+            try {
+                test.run();
+                System.out.println("PASS " + test.getName());
+            } catch (Throwable e) {
+                ++failed;
+                System.out.println("FAIL " + test.getName() + ": " + e);
+                e.printStackTrace(System.out);
+            }
+        }
+        System.out.println(ran + " tests, " + failed + " failed.");
+        System.exit(failed > 0 || ran == 0 ? 1 : 0);
+    }
+
+    private static boolean selected(String name, String args[]) {
+        if (args.length == 0) return true;
+        for (String arg : args) {
+            if (arg.equals(name)) return true;
+        }
+        return false;
+    }
+}
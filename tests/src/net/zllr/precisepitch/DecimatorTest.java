@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+// The anti-alias filter keeps the passband and stops everything that would
+// fold back, as promised in the Decimator class comment.
+final class DecimatorTest extends JvmTest {
+    private static final double kMaxPassbandRippleDb = 0.1;
+    private static final double kDefaultStopbandDb = -70;  // documented -71.
+    private static final double kRangeStopbandDb = -60;
+
+    @Override
+    void run() {
+        for (int rate : new int[] { 44100, 48000 }) {
+            for (int factor = 2; factor <= 7; ++factor) {
+                final Decimator decimator = new Decimator(rate, factor);
+                checkPassband(decimator, rate, rate / factor / 10.0);
+                checkStopband(decimator, rate, kDefaultStopbandDb);
+            }
+        }
+
+        // Passbands of the instrument ranges, up to their third harmonic.
+        final InstrumentRange ranges[] = {
+            InstrumentRange.VIOLIN, InstrumentRange.VIOLA,
+            InstrumentRange.CELLO, InstrumentRange.GUITAR,
+        };
+        for (InstrumentRange range : ranges) {
+            final int factor = Math.max(2, range.getDecimation(44100));
+            final Decimator decimator = new Decimator(
+                44100, factor, range.getWaveletMaxFrequency());
+            final double nyquist = 44100 / 2.0 / factor;
+            checkPassband(decimator, 44100,
+                          Math.min(range.getWaveletMaxFrequency(),
+                                   0.8 * nyquist));
+            checkStopband(decimator, 44100, kRangeStopbandDb);
+        }
+
+        // Factor 1 passes the signal through (after the DC blocker).
+        final Decimator identity = new Decimator(44100, 1);
+        assertNear("factor 1 gain", 0, gainDb(identity, 44100, 440), 0.01);
+    }
+
+    private static void checkPassband(Decimator decimator, int rate,
+                                      double passband) {
+        for (double f = 100; f <= passband; f += passband / 20) {
+            assertNear(describe(decimator, rate, f), 0,
+                       gainDb(decimator, rate, f), kMaxPassbandRippleDb);
+        }
+    }
+
+    // Anything between the output Nyquist frequency and the input Nyquist
+    // frequency.
+    private static void checkStopband(Decimator decimator, int rate,
+                                      double limitDb) {
+        final double nyquist = rate / 2.0 / decimator.getFactor();
+        for (double f = nyquist; f < rate / 2.0; f += 53) {
+            assertBelow(describe(decimator, rate, f), limitDb,
+                        gainDb(decimator, rate, f));
+        }
+    }
+
+    private static String describe(Decimator decimator, int rate, double f) {
+        return String.format("%dHz / %d (%d taps) at %.0fHz", rate,
+                             decimator.getFactor(), decimator.getTaps(), f);
+    }
+
+    // Gain at frequency f in dB, from the output level once the filter
+    // has settled.
+    private static double gainDb(Decimator decimator, int rate, double f) {
+        final double amplitude = 0.5;
+        final double in[] = sine(rate / 4, f, amplitude, rate);
+        final double out[] = new double[decimator.maxOutput(in.length)];
+        decimator.reset();
+        final int count = decimator.process(in, 0, in.length, out, 0);
+        double power = 0;
+        int n = 0;
+        for (int i = count / 4; i < count; ++i) {
+            power += out[i] * out[i];
+            ++n;
+        }
+        final double rms = Math.sqrt(power / n);
+        return 20 * Math.log10(rms / (amplitude / Math.sqrt(2)));
+    }
+}
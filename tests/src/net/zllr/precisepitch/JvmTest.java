@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+// Base of the tests that run on a plain JVM, without a device or the
+// Android SDK. No test framework: a test implements run() and fails by
+// throwing; AllTests runs them all.
+abstract class JvmTest {
+    abstract void run() throws Exception;
+
+    String getName() { return getClass().getSimpleName(); }
+
+    static void assertTrue(String what, boolean condition) {
+        if (!condition) throw new AssertionError(what);
+    }
+
+    static void assertEquals(String what, long expected, long actual) {
+        if (expected != actual) {
+            throw new AssertionError(what + ": expected " + expected
+                                     + ", got " + actual);
+        }
+    }
+
+    static void assertNear(String what, double expected, double actual,
+                           double tolerance) {
+        if (!(Math.abs(expected - actual) <= tolerance)) {
+            throw new AssertionError(what + ": expected " + expected
+                                     + " +/- " + tolerance
+                                     + ", got " + actual);
+        }
+    }
+
+    static void assertBelow(String what, double limit, double actual) {
+        if (!(actual < limit)) {
+            throw new AssertionError(what + ": expected below " + limit
+                                     + ", got " + actual);
+        }
+    }
+
+    // A sine of the given frequency and amplitude, sampled at sampleRate.
+    static double[] sine(int length, double frequency, double amplitude,
+                         int sampleRate) {
+        final double result[] = new double[length];
+        for (int i = 0; i < length; ++i) {
+            result[i] = amplitude
+                * Math.sin(2 * Math.PI * frequency * i / sampleRate);
+        }
+        return result;
+    }
+}
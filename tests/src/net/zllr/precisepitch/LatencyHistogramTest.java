@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.util.Random;
+
+// Bucket bounds of the LatencyHistogram: exact below 32, then at most 1/32
+// relative error, and bucket edges that neither overlap nor leave gaps.
+final class LatencyHistogramTest extends JvmTest {
+    private static final long kLargest = (1L << 31) - 1;
+
+    @Override
+    void run() {
+        // Small values have a bucket each.
+        for (long v = 0; v < 32; ++v) {
+            assertEquals("bucket of " + v, v, bucketUpperBound(v));
+        }
+
+        // Powers of two and their neighbours are where buckets change size.
+        for (int bit = 5; bit <= 30; ++bit) {
+            final long power = 1L << bit;
+            checkBucket(power - 1);
+            checkBucket(power);
+            checkBucket(power + 1);
+        }
+        final Random random = new Random(1);
+        for (int i = 0; i < 10000; ++i) {
+            checkBucket(1 + (long) (random.nextDouble() * kLargest));
+        }
+
+        // Out of range values are clamped.
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals("negative", 0, histogram.getValueAtPercentile(100));
+        histogram.record(1L << 40);
+        assertEquals("too large", kLargest, histogram.getValueAtPercentile(100));
+        assertEquals("max", 1L << 40, histogram.getMax());
+
+        // Percentiles, count and mean of a known distribution.
+        histogram.reset();
+        assertEquals("empty", 0, histogram.getValueAtPercentile(50));
+        for (long v = 1; v <= 1000; ++v) {
+            histogram.record(v);
+        }
+        assertEquals("count", 1000, histogram.getCount());
+        assertNear("mean", 500.5, histogram.getMean(), 1e-9);
+        checkPercentile(histogram, 50, 500);
+        checkPercentile(histogram, 90, 900);
+        checkPercentile(histogram, 99, 990);
+        assertEquals("100th", 1000, histogram.getValueAtPercentile(100));
+    }
+
+    // A value lands in a bucket whose upper end is at or above it and within
+    // the relative error. The next value beyond the bucket starts a new one.
+    private static void checkBucket(long value) {
+        final long upper = bucketUpperBound(value);
+        assertTrue("bucket of " + value + " ends at " + upper,
+                   upper >= value && upper - value <= value / 32);
+        assertEquals("upper end of bucket of " + value,
+                     upper, bucketUpperBound(upper));
+        if (upper < kLargest) {
+            assertTrue("after bucket of " + value,
+                       bucketUpperBound(upper + 1) > upper);
+        }
+    }
+
+    // The upper end of the bucket a value is recorded in: the percentile
+    // reported for it, as long as a larger value keeps the maximum away.
+    private static long bucketUpperBound(long value) {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(value);
+        histogram.record(kLargest);
+        return histogram.getValueAtPercentile(50);
+    }
+
+    private static void checkPercentile(LatencyHistogram histogram,
+                                        double percentile, long exact) {
+        final long reported = histogram.getValueAtPercentile(percentile);
+        assertTrue(percentile + "th percentile " + reported + " for "
+                   + exact, reported >= exact && reported - exact <= exact / 32);
+    }
+}
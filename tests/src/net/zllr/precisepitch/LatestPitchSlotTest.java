@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import net.zllr.precisepitch.model.MeasuredPitch;
+
+// A producer publishing as fast as it can and a consumer taking readings:
+// the consumer never sees a half written record or an older reading than
+// the one before, and every reading is either taken or counted as missed.
+final class LatestPitchSlotTest extends JvmTest {
+    private static final int kReadings = 1000000;
+
+    @Override
+    void run() throws Exception {
+        final LatestPitchSlot slot = new LatestPitchSlot();
+        assertTrue("nothing published yet", slot.take() == null);
+
+        final Thread producer = new Thread() {
+                public void run() {
+                    for (int i = 1; i <= kReadings; ++i) {
+                        final MeasuredPitch record = slot.acquire();
+                        record.timestampNanos = i;
+                        record.frequency = i;
+                        record.cent = -i;
+                        record.sampleIndex = 2L * i;
+                        slot.publish();
+                    }
+                }
+            };
+        producer.start();
+
+        long last = 0;
+        long seen = 0;
+        while (last < kReadings) {
+            final MeasuredPitch record = slot.take();
+            if (record == null) {
+                Thread.yield();
+                continue;
+            }
+            final long i = record.timestampNanos;
+            assertTrue("reading " + i + " after " + last, i > last);
+            assertTrue("torn reading " + i, record.frequency == i
+                       && record.cent == -i && record.sampleIndex == 2 * i);
+            last = i;
+            ++seen;
+        }
+        producer.join();
+        assertTrue("no new reading", slot.take() == null);
+        assertEquals("published", kReadings, slot.getPublished());
+        assertEquals("taken", seen, slot.getTaken());
+        assertEquals("taken or missed", kReadings, seen + slot.getMissed());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.util.Random;
+
+// The sliding mode distance search of the wavelet tracker gives exactly the
+// same pitches as the original exhaustive one, for the same sequence of
+// windows (the sliding search relies on a histogram cleaned up after each
+// level).
+final class ModeSearchTest extends JvmTest {
+    private static final int kSampleRate = 44100;
+    private static final int kWindows = 500;
+
+    @Override
+    void run() {
+        compare(4096, DyWaPitchTrack.kMaxF, DyWaPitchTrack.kMaxFLWTlevels,
+                false);
+        compare(4096, DyWaPitchTrack.kMaxF, DyWaPitchTrack.kMaxFLWTlevels,
+                true);
+        final InstrumentRange violin = InstrumentRange.VIOLIN;
+        compare(1024, violin.getWaveletMaxFrequency(),
+                violin.getWaveletLevels(kSampleRate), true);
+    }
+
+    private static void compare(int samplecount, double maxFrequency,
+                                int levels, boolean interpolate) {
+        final DyWaPitchTrack sliding = new DyWaPitchTrack(
+            kSampleRate, samplecount, maxFrequency, levels);
+        final DyWaPitchTrack exhaustive = new DyWaPitchTrack(
+            kSampleRate, samplecount, maxFrequency, levels);
+        sliding.setModeSearch(DyWaPitchTrack.ModeSearch.SLIDING);
+        exhaustive.setModeSearch(DyWaPitchTrack.ModeSearch.EXHAUSTIVE);
+        sliding.setInterpolateExtrema(interpolate);
+        exhaustive.setInterpolateExtrema(interpolate);
+
+        final Random random = new Random(42);
+        final double window[] = new double[samplecount];
+        int pitched = 0;
+        for (int w = 0; w < kWindows; ++w) {
+            // Harmonic tones with noise between 40Hz and 3kHz, now and then
+            // only noise or silence.
+            final double f = 40 * Math.pow(75, random.nextDouble());
+            final double level = w % 17 == 0 ? 0 : 0.5 * random.nextDouble();
+            final double noise = 0.05 * random.nextDouble();
+            final double phase = 2 * Math.PI * random.nextDouble();
+            for (int i = 0; i < samplecount; ++i) {
+                final double t = 2 * Math.PI * f * i / kSampleRate + phase;
+                window[i] = level * (Math.sin(t) + 0.5 * Math.sin(2 * t + 1)
+                                     + 0.25 * Math.sin(3 * t + 2))
+                    + noise * random.nextGaussian();
+            }
+            final double expected = exhaustive.computeWaveletPitch(window, 0);
+            final double actual = sliding.computeWaveletPitch(window, 0);
+            if (Double.doubleToLongBits(expected)
+                != Double.doubleToLongBits(actual)) {
+                throw new AssertionError(String.format(
+                    "window %d (%.1fHz, %d samples): sliding %s,"
+                    + " exhaustive %s", w, f, samplecount, actual, expected));
+            }
+            if (expected > 0) ++pitched;
+        }
+        // Make sure the comparison wasn't all silence.
+        assertTrue(pitched + " of " + kWindows + " windows with a pitch",
+                   pitched > kWindows / 4);
+    }
+}
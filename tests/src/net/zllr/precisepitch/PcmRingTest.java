@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+// A producer and a consumer thread on a PcmRing, for each storage: every
+// frame arrives complete and in order, dropped frames are counted as
+// overruns and leave a gap of exactly their size in the sample clock.
+final class PcmRingTest extends JvmTest {
+    private static final int kFrames = 4;
+    private static final int kFrameSize = 64;
+    private static final int kProduced = 100000;
+
+    @Override
+    void run() throws Exception {
+        for (PcmRing.Storage storage : PcmRing.Storage.values()) {
+            checkHandOver(storage);
+        }
+        checkCounters();
+    }
+
+    private static void checkHandOver(final PcmRing.Storage storage)
+        throws Exception {
+        final PcmRing ring = new PcmRing(kFrames, kFrameSize, storage);
+        final Thread producer = new Thread() {
+                public void run() {
+                    for (int f = 0; f < kProduced; ++f) {
+                        if (!produce(ring, (long) f * kFrameSize)) {
+                            ring.skipWrite(kFrameSize);
+                        }
+                        if (f % 1000 == 0) Thread.yield();
+                    }
+                }
+            };
+        producer.start();
+
+        long framesRead = 0;
+        long nextIndex = 0;
+        long skipped = 0;
+        while (producer.isAlive() || ring.available() > 0) {
+            if (!ring.awaitFrame(10)) continue;
+            final long index = ring.getReadSampleIndex();
+            assertTrue(storage + ": frame at " + index + " after " + nextIndex,
+                       index >= nextIndex);
+            assertEquals(storage + ": frame length",
+                         kFrameSize, ring.getReadLength());
+            for (int i = 0; i < kFrameSize; ++i) {
+                if (readSample(ring, i) != expectedSample(index + i)) {
+                    throw new AssertionError(storage + ": sample " + (index + i)
+                                             + " torn or out of order");
+                }
+            }
+            skipped += index - nextIndex;
+            nextIndex = index + kFrameSize;
+            ++framesRead;
+            ring.releaseRead();
+        }
+        producer.join();
+        assertEquals(storage + ": frames read or dropped",
+                     kProduced, framesRead + ring.getOverruns());
+        assertEquals(storage + ": gaps in the sample clock",
+                     ring.getOverruns() * kFrameSize,
+                     skipped + (long) kProduced * kFrameSize - nextIndex);
+    }
+
+    // Fill the next frame with the samples starting at 'index'; false if
+    // the ring is full.
+    private static boolean produce(PcmRing ring, long index) {
+        switch (ring.getStorage()) {
+        case SHORT_ARRAY: {
+            final short frame[] = ring.acquireWrite();
+            if (frame == null) return false;
+            for (int i = 0; i < kFrameSize; ++i) {
+                frame[i] = (short) expectedSample(index + i);
+            }
+            break;
+        }
+        case DIRECT_SHORT: {
+            final ByteBuffer frame = ring.acquireWriteBuffer();
+            if (frame == null) return false;
+            final ShortBuffer samples = frame.asShortBuffer();
+            for (int i = 0; i < kFrameSize; ++i) {
+                samples.put(i, (short) expectedSample(index + i));
+            }
+            break;
+        }
+        case DIRECT_FLOAT: {
+            final ByteBuffer frame = ring.acquireWriteBuffer();
+            if (frame == null) return false;
+            final FloatBuffer samples = frame.asFloatBuffer();
+            for (int i = 0; i < kFrameSize; ++i) {
+                samples.put(i, expectedSample(index + i));
+            }
+            break;
+        }
+        }
+        ring.commitWrite(kFrameSize);
+        return true;
+    }
+
+    private static int readSample(PcmRing ring, int i) {
+        if (ring.getStorage() == PcmRing.Storage.DIRECT_FLOAT) {
+            return (int) ring.acquireReadFloats().get(i);
+        }
+        return ring.acquireReadShorts().get(i);
+    }
+
+    // Exactly representable as short and as float.
+    private static int expectedSample(long index) {
+        return (int) (index % 30011) - 15000;
+    }
+
+    // Overruns when full, underruns only for waits that time out.
+    private static void checkCounters() {
+        final PcmRing ring = new PcmRing(2, kFrameSize);
+        ring.setFramePeriodNanos(1000000000L);
+        assertTrue("empty ring", !ring.awaitFrame(1));
+        assertEquals("underrun on timeout", 1, ring.getUnderruns());
+
+        ring.commitWrite(kFrameSize);
+        assertTrue("frame ready", ring.awaitFrame(1));
+        assertEquals("no underrun with a frame ready", 1,
+                     ring.getUnderruns());
+
+        assertTrue("room for a second frame", ring.acquireWrite() != null);
+        ring.commitWrite(kFrameSize);
+        assertTrue("full", ring.acquireWrite() == null);
+        assertEquals("overrun", 1, ring.getOverruns());
+        ring.releaseRead();
+        assertTrue("room again", ring.acquireWrite() != null);
+        assertEquals("sample clock", kFrameSize, ring.getReadSampleIndex());
+    }
+}
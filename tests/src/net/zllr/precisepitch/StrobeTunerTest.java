@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 Henner Zeller <h.zeller@acm.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.zllr.precisepitch;
+
+import java.util.Random;
+
+// The strobe tuner measures how far a detuned tone is off its reference,
+// to a small fraction of a cent, with harmonics and a bit of noise.
+final class StrobeTunerTest extends JvmTest {
+    private static final int kSampleRate = 44100;
+    private static final int kBlock = 512;
+    private static final double kToleranceCents = 0.02;
+
+    @Override
+    void run() {
+        for (double reference : new double[] { 65.41, 196.0, 440.0, 1318.5 }) {
+            for (double cents : new double[] { 0, 0.05, -0.3, 3.7, -12 }) {
+                check(reference, cents);
+            }
+        }
+
+        // Nothing to report before there is enough history.
+        final StrobeTuner tuner = new StrobeTuner(kSampleRate);
+        tuner.setReference(440);
+        assertTrue("locked without signal", !tuner.isLocked());
+        final double tone[] = sine(kBlock, 440, 0.5, kSampleRate);
+        tuner.addSamples(tone, 0, tone.length);
+        assertTrue("locked after one block", !tuner.isLocked());
+    }
+
+    private static void check(double reference, double cents) {
+        final double frequency = reference * Math.pow(2, cents / 1200);
+        final StrobeTuner tuner = new StrobeTuner(kSampleRate);
+        tuner.setReference(reference);
+        final Random random = new Random(3);
+        final short block[] = new short[kBlock];
+        long t = 0;
+        // About 1.5 seconds; the baseline is the last half second.
+        for (int b = 0; b < 130; ++b) {
+            for (int i = 0; i < kBlock; ++i, ++t) {
+                final double phase = 2 * Math.PI * frequency * t / kSampleRate;
+                final double sample = 0.3 * Math.sin(phase)
+                    + 0.15 * Math.sin(2 * phase + 1)
+                    + 0.08 * Math.sin(3 * phase + 2)
+                    + 0.01 * random.nextGaussian();
+                block[i] = (short) Math.round(32767 * sample);
+            }
+            tuner.addSamples(block, 0, kBlock);
+        }
+        final String what = String.format("%.2fHz %+.2f cents", reference,
+                                          cents);
+        assertTrue(what + ": locked", tuner.isLocked());
+        assertNear(what, cents, tuner.getCents(), kToleranceCents);
+        assertNear(what + " offset in Hz", frequency - reference,
+                   tuner.getFrequencyOffset(),
+                   reference * kToleranceCents / 1200);
+        // Further off, the integration window attenuates the tone.
+        if (Math.abs(cents) < 5) {
+            assertNear(what + " level", 0.3, tuner.getLevel(), 0.03);
+        }
+    }
+}